@@ -0,0 +1,176 @@
+/*
+ * Association Rules -- Rules X -> Y From the Frequent Itemsets of a Run
+ *
+ * Built from the counts a Miner.Result already holds, so the baskets are not read again: the first
+ * pass counts of the frequent items, the frequent pairs and the larger frequent itemsets. Every
+ * subset of a frequent itemset is frequent, so the count of any antecedent or consequent is one
+ * lookup in FrequentItems or in the ItemsetTrie of its size.
+ *
+ * RULES:       For every frequent itemset Z of 2 or more items and every split of Z into a non-empty
+ * 				antecedent X and consequent Y:
+ * 				confidence = count(Z) / count(X)
+ * 				lift       = confidence / (count(Y) / baskets)
+ * 				interest   = confidence - count(Y) / baskets
+ * 				A rule is kept when all three reach their thresholds.
+ * PRUNING:     Consequents of a Z are tried smallest first. If X -> Y is below the confidence, so is
+ * 				every rule of Z whose consequent contains Y (its antecedent is smaller, so counted more
+ * 				often), and those are skipped without a lookup.
+ *
+ * Turned on in Miner.run with the system property miner.rules, the minimum confidence (e.g. 0.5).
+ * miner.rules.lift and miner.rules.interest set the other two thresholds, by default every rule
+ * passes them. Only itemsets the run found give rules, so a max itemset size above 2 is needed for
+ * rules of more than two items. Rules are kept in flat arrays, in the order of their itemsets.
+ */
+
+import java.util.Arrays;
+import java.util.List;
+
+public class AssociationRules {
+
+	// callback used to walk the rules, items[0..antecedent-1] -> items[antecedent..length-1]
+	public interface RuleConsumer {
+		void accept(int[] items, int antecedent, int length, int count, double confidence, double lift, double interest);
+	}
+
+	public static final String MIN_CONFIDENCE = System.getProperty("miner.rules");
+	public static final boolean ENABLED = MIN_CONFIDENCE != null;
+
+	// itemsets with more items would need too many splits to be tried one by one
+	private static final int MAX_RULE_ITEMS = 24;
+
+	private final double baskets;
+	private final double minConfidence;
+	private final double minLift;
+	private final double minInterest;
+
+	private int size;
+	private int[] items = new int[64];		// items of every rule, antecedent first (compact indices)
+	private int[] starts = new int[17];		// rule r is items[starts[r]..starts[r+1]-1]
+	private int[] antecedents = new int[16];
+	private int[] counts = new int[16];
+	private double[] confidence = new double[16];
+	private double[] lift = new double[16];
+	private double[] interest = new double[16];
+
+	public AssociationRules(double baskets, double minConfidence, double minLift, double minInterest){
+		this.baskets = baskets;
+		this.minConfidence = minConfidence;
+		this.minLift = minLift;
+		this.minInterest = minInterest;
+	}
+
+	// the rules of a run with the thresholds of the system properties
+	public static AssociationRules from_properties(Miner.Result result){
+		double minConfidence = Double.parseDouble(MIN_CONFIDENCE);
+		double minLift = Double.parseDouble(System.getProperty("miner.rules.lift", "0"));
+		double minInterest = Double.parseDouble(System.getProperty("miner.rules.interest", "-1"));
+		AssociationRules rules = new AssociationRules(result.baskets, minConfidence, minLift, minInterest);
+		rules.generate(result.items, result.pairs, result.itemsets);
+		return rules;
+	}
+
+	// RULES of the frequent pairs (compact indices) and the frequent itemsets of sizes 3, 4, ...
+	public void generate(FrequentItems freq_items, PairCounter pairs, List<ItemsetTrie> itemsets){
+		ItemsetTrie[] levels = new ItemsetTrie[itemsets.size() + 3];
+		levels[2] = ItemsetTrie.from_pairs(pairs);
+		for(int level = 0; level < itemsets.size(); level++)
+			levels[level + 3] = itemsets.get(level);
+
+		for(int k = 2; k < levels.length; k++){
+			if(k > MAX_RULE_ITEMS)
+				throw new IllegalArgumentException("Frequent itemsets of " + k + " items give too many rules, at most " + MAX_RULE_ITEMS + " items");
+			boolean[] failed = new boolean[1 << k];
+			int[] byConsequentSize = masks_by_size(k);
+			int[] antecedent = new int[k];
+			int[] consequent = new int[k];
+			int itemsetSize = k;
+			levels[k].forEach((itemset, count) -> {
+				Arrays.fill(failed, false);
+				for(int consequentMask : byConsequentSize){
+					// PRUNING, a consequent one item smaller already failed
+					boolean pruned = false;
+					for(int rest = consequentMask; rest != 0 && !pruned; rest &= rest - 1){
+						int smaller = consequentMask & ~Integer.lowestOneBit(rest);
+						pruned = (smaller != 0) && failed[smaller];
+					}
+					if(pruned){
+						failed[consequentMask] = true;
+						continue;
+					}
+					int a = 0;
+					int c = 0;
+					for(int d = 0; d < itemsetSize; d++){
+						if((consequentMask & (1 << d)) != 0)
+							consequent[c++] = itemset[d];
+						else
+							antecedent[a++] = itemset[d];
+					}
+					double ruleConfidence = (double)count / count_of(freq_items, levels, antecedent, a);
+					if(ruleConfidence < minConfidence){
+						failed[consequentMask] = true;
+						continue;
+					}
+					double consequentSupport = count_of(freq_items, levels, consequent, c) / baskets;
+					double ruleLift = ruleConfidence / consequentSupport;
+					double ruleInterest = ruleConfidence - consequentSupport;
+					if(ruleLift >= minLift && ruleInterest >= minInterest)
+						add(antecedent, a, consequent, c, count, ruleConfidence, ruleLift, ruleInterest);
+				}
+			});
+		}
+	}
+
+	// the proper non-empty subsets of k positions as bit masks, fewest bits first
+	private static int[] masks_by_size(int k){
+		int[] masks = new int[(1 << k) - 2];
+		int n = 0;
+		for(int bits = 1; bits < k; bits++)
+			for(int mask = 1; mask < (1 << k) - 1; mask++)
+				if(Integer.bitCount(mask) == bits)
+					masks[n++] = mask;
+		return masks;
+	}
+
+	// count of a sorted itemset of compact indices, every subset of a frequent itemset is held somewhere
+	private static int count_of(FrequentItems freq_items, ItemsetTrie[] levels, int[] itemset, int length){
+		if(length == 1)
+			return freq_items.count(itemset[0]);
+		return levels[length].get(itemset);
+	}
+
+	private void add(int[] antecedent, int a, int[] consequent, int c, int count, double ruleConfidence, double ruleLift, double ruleInterest){
+		if(size == counts.length){
+			int capacity = size * 2;
+			starts = Arrays.copyOf(starts, capacity + 1);
+			antecedents = Arrays.copyOf(antecedents, capacity);
+			counts = Arrays.copyOf(counts, capacity);
+			confidence = Arrays.copyOf(confidence, capacity);
+			lift = Arrays.copyOf(lift, capacity);
+			interest = Arrays.copyOf(interest, capacity);
+		}
+		int start = starts[size];
+		if(start + a + c > items.length)
+			items = Arrays.copyOf(items, Math.max(items.length * 2, start + a + c));
+		System.arraycopy(antecedent, 0, items, start, a);
+		System.arraycopy(consequent, 0, items, start + a, c);
+		antecedents[size] = a;
+		counts[size] = count;
+		confidence[size] = ruleConfidence;
+		lift[size] = ruleLift;
+		interest[size] = ruleInterest;
+		starts[++size] = start + a + c;
+	}
+
+	public int size(){
+		return size;
+	}
+
+	public void forEach(RuleConsumer consumer){
+		int[] rule = new int[MAX_RULE_ITEMS];
+		for(int r = 0; r < size; r++){
+			int length = starts[r + 1] - starts[r];
+			System.arraycopy(items, starts[r], rule, 0, length);
+			consumer.accept(rule, antecedents[r], length, counts[r], confidence[r], lift[r], interest[r]);
+		}
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * Basket Buffer -- Baskets Held in Memory
+ *
+ * Keeps baskets back to back in one int[] of items with the end offset of each basket in a second
+ * int[], so a partition of the file costs 4 bytes per item plus 4 per basket and no objects. The
+ * baskets are handed out through the same BasketConsumer callback as BasketReader, copied into a
+ * scratch buffer first so a pass may filter them in place just like it does when reading the file.
+ * filter() cuts the baskets down to their frequent items in place once those are known (BasketCache).
+ */
+
+import java.util.Arrays;
+
+public class BasketBuffer {
+
+	private int[] items = new int[1024];
+	private int[] ends = new int[256];
+	private int numItems;
+	private int numBaskets;
+
+	public void add(int[] basket, int length){
+		if(numItems + length > items.length)
+			items = Arrays.copyOf(items, Math.max(numItems + length, items.length * 2));
+		if(numBaskets == ends.length)
+			ends = Arrays.copyOf(ends, Math.max(16, numBaskets * 2));
+		System.arraycopy(basket, 0, items, numItems, length);
+		numItems += length;
+		ends[numBaskets++] = numItems;
+	}
+
+	public int size(){
+		return numBaskets;
+	}
+
+	// memory held by the baskets themselves
+	public long bytes(){
+		return 4L * numItems + 4L * numBaskets;
+	}
+
+	// keeps only the frequent items of each basket as compact indices, and only the baskets with at
+	// least minLength of them, then trims the arrays to what is left
+	public void filter(FrequentItems freq_items, int minLength){
+		int[] basket = new int[64];
+		int n = 0;
+		int kept = 0;
+		int start = 0;
+		for(int b = 0; b < numBaskets; b++){
+			int length = ends[b] - start;
+			if(length > basket.length)
+				basket = new int[Math.max(length, basket.length * 2)];
+			System.arraycopy(items, start, basket, 0, length);
+			int freq_length = freq_items.filter(basket, length, basket);
+			start = ends[b];
+			if(freq_length < minLength)
+				continue;
+			System.arraycopy(basket, 0, items, n, freq_length);
+			n += freq_length;
+			ends[kept++] = n;
+		}
+		items = Arrays.copyOf(items, n);
+		ends = Arrays.copyOf(ends, kept);
+		numItems = n;
+		numBaskets = kept;
+	}
+
+	public void forEach(BasketReader.BasketConsumer consumer){
+		forEach(0, numBaskets, consumer);
+	}
+
+	// baskets from..to-1 only
+	public void forEach(int from, int to, BasketReader.BasketConsumer consumer){
+		int[] basket = new int[64];
+		int start = (from == 0) ? 0 : ends[from - 1];
+		for(int b = from; b < to; b++){
+			int length = ends[b] - start;
+			if(length > basket.length)
+				basket = new int[Math.max(length, basket.length * 2)];
+			System.arraycopy(items, start, basket, 0, length);
+			consumer.accept(basket, length);
+			start = ends[b];
+		}
+	}
+}
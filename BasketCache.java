@@ -0,0 +1,151 @@
+/*
+ * Basket Cache -- Baskets of Frequent Items Kept in Memory Between the Passes of the Engine
+ *
+ * Turned on with the system property miner.cache, the memory budget in bytes (with an optional k,
+ * m or g, e.g. -Dminer.cache=256m). Every pass of Miner after the first only looks at the frequent
+ * items of a basket, and not at all at baskets with fewer than two of them. With those cut away
+ * what the later passes need is usually a small fraction of the file, so they read it from here
+ * instead of scanning and parsing the file again.
+ *
+ * FIRST PASS:  Each worker also keeps the baskets it reads in its own BasketBuffer (PassCounters.cached)
+ * 				as long as the buffers of all the workers together stay within the budget.
+ * FILTER:      Once the frequent items are known every buffer is cut down in place to the compact
+ * 				indices of its frequent items, and the baskets left with fewer than MIN_ITEMS of them
+ * 				are dropped.
+ * FALLBACK:    When the whole baskets did not fit, the first later pass fills the cache again with the
+ * 				baskets it has already filtered, within the same budget. If those do not fit either
+ * 				the cache is dropped and every pass rescans the file.
+ * RUN:         Passes over the cache go through PassRunner, which hands out ranges of its baskets to
+ * 				the workers like the chunks of a file.
+ *
+ * The pair occurrences of the whole baskets are added up as they are cached, so the funnel of a pass
+ * over the cache (PassMetrics.funnel) is the same as over the file.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+public class BasketCache {
+
+	public static final String BUDGET = System.getProperty("miner.cache");
+	public static final boolean ENABLED = BUDGET != null;
+
+	private static final int MIN_ITEMS = 2;	// fewer frequent items, no pair to hash or count
+
+	private enum State { WHOLE, FILLING, READY, DROPPED }
+
+	private final long budget;
+	private final List<BasketBuffer> parts = new ArrayList<BasketBuffer>();
+	private final AtomicLong bytes = new AtomicLong();
+	private final LongAdder pairsInBaskets = new LongAdder();
+	private volatile boolean full;
+	private State state = State.WHOLE;
+	private int numBaskets;
+
+	public BasketCache(long budget){
+		this.budget = budget;
+	}
+
+	// a cache with the budget of miner.cache, null without it
+	public static BasketCache from_properties(){
+		return ENABLED ? new BasketCache(OffHeapArray.parse_bytes(BUDGET, "miner.cache")) : null;
+	}
+
+	// true once the later passes can read the cache instead of the file
+	public boolean ready(){
+		return state == State.READY;
+	}
+
+	// counters that also get a BasketBuffer of their own while the cache is being filled
+	public Supplier<PassCounters> with_parts(Supplier<PassCounters> newCounters){
+		if(state != State.WHOLE && state != State.FILLING)
+			return newCounters;
+		return () -> {
+			PassCounters counters = newCounters.get();
+			BasketBuffer part = new BasketBuffer();
+			synchronized(parts){
+				parts.add(part);
+			}
+			counters.cached = part;
+			return counters;
+		};
+	}
+
+	// keeps basket[0..length-1] in part, wholeLength is the length before the basket was filtered
+	public void add(BasketBuffer part, int[] basket, int length, int wholeLength){
+		if(full)
+			return;
+		pairsInBaskets.add((long)wholeLength * (wholeLength - 1) / 2);
+		if(state == State.FILLING && length < MIN_ITEMS)
+			return;
+		if(bytes.addAndGet(4L * length + 4) > budget){
+			full = true;
+			return;
+		}
+		part.add(basket, length);
+	}
+
+	// FILTER, after the first pass, or FALLBACK when the whole baskets did not fit
+	public void filter(FrequentItems freq_items, int numBaskets){
+		if(state != State.WHOLE)
+			return;
+		this.numBaskets = numBaskets;
+		if(full){
+			reset();
+			state = State.FILLING;
+		}
+		else {
+			long total = 0;
+			for(BasketBuffer part : parts){
+				part.filter(freq_items, MIN_ITEMS);
+				total += part.bytes();
+			}
+			bytes.set(total);
+			state = State.READY;
+		}
+		record();
+	}
+
+	// after a pass that filled the cache with filtered baskets, drops it if they did not fit
+	public void filled(){
+		if(state != State.FILLING)
+			return;
+		if(full){
+			reset();
+			state = State.DROPPED;
+		}
+		else {
+			state = State.READY;
+		}
+		record();
+	}
+
+	private void reset(){
+		parts.clear();
+		bytes.set(0);
+		pairsInBaskets.reset();
+		full = false;
+	}
+
+	private void record(){
+		PassMetrics.put("basket_cache", state.name().toLowerCase());
+		PassMetrics.put("basket_cache_bytes", bytes.get());
+	}
+
+	public List<BasketBuffer> parts(){
+		return parts;
+	}
+
+	// baskets of the dataset, cached or not, as PassRunner would count them in a pass over the file
+	public int num_baskets(){
+		return numBaskets;
+	}
+
+	// pair occurrences of the whole baskets, the first step of the funnel
+	public long pairs_in_baskets(){
+		return pairsInBaskets.sum();
+	}
+}
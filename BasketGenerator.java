@@ -0,0 +1,239 @@
+/*
+ * Basket Generator -- Synthetic Basket Files of Any Size With Known Frequent Itemsets
+ *
+ * PLANT:       A number of itemsets of 2 to MAX_PLANTED_SIZE items are drawn uniformly from the item
+ * 				universe (so mostly rare items), each with a rate between MIN_PLANTED_RATE and
+ * 				MAX_PLANTED_RATE of the baskets. They are the ground truth the miners must find.
+ * BASKETS:     Every basket gets 1 + Poisson(mean length - 1) items drawn with Zipf popularity (item
+ * 				id 0 is the most popular), plus each planted itemset with its rate. Items are sorted
+ * 				and duplicates dropped, and the basket is written as a line in the format of
+ * 				retail.txt, so every miner reads the file as is (or after BinaryBaskets).
+ * TRUTH:       <file>.planted lists every planted itemset with the number of baskets it was put in.
+ * 				Its true count can only be higher, when the items also turned up on their own.
+ *
+ * Baskets are made in chunks of CHUNK_BASKETS on the PassRunner pool, each chunk from its own random
+ * generator seeded from the seed and the chunk number, and written in order. The same seed gives
+ * the same file byte for byte whatever the number of threads, and memory stays at a few chunks, so
+ * files of tens of GB can be written.
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+public class BasketGenerator {
+
+	private static final int CHUNK_BASKETS = 1 << 16;
+	private static final int MAX_PLANTED_SIZE = 4;
+	private static final double MIN_PLANTED_RATE = 0.005;
+	private static final double MAX_PLANTED_RATE = 0.05;
+
+	// one chunk of baskets as text, with how often each planted itemset went into it
+	private static class Chunk {
+		byte[] bytes = new byte[1 << 20];
+		int length;
+		final long[] planted;
+
+		Chunk(int numPlanted){
+			this.planted = new long[numPlanted];
+		}
+
+		void write_int(int value){
+			if(length + 12 > bytes.length)
+				bytes = Arrays.copyOf(bytes, bytes.length * 2);
+			if(value == 0){
+				bytes[length++] = '0';
+				return;
+			}
+			int start = length;
+			for(; value > 0; value /= 10)
+				bytes[length++] = (byte)('0' + value % 10);
+			for(int lo = start, hi = length - 1; lo < hi; lo++, hi--){
+				byte c = bytes[lo];
+				bytes[lo] = bytes[hi];
+				bytes[hi] = c;
+			}
+		}
+
+		void write_byte(char c){
+			if(length == bytes.length)
+				bytes = Arrays.copyOf(bytes, bytes.length * 2);
+			bytes[length++] = (byte)c;
+		}
+	}
+
+	private final int numItems;
+	private final double meanLength;
+	private final long seed;
+	private final double[] zipfCdf;		// P(item id <= k)
+	private final int[][] planted;
+	private final double[] plantedRates;
+
+	public BasketGenerator(int numItems, double zipfExponent, double meanLength, int numPlanted, long seed){
+		if(numItems < 2)
+			throw new IllegalArgumentException("Item universe must have at least 2 items: " + numItems);
+		if(meanLength < 1)
+			throw new IllegalArgumentException("Mean basket length must be at least 1: " + meanLength);
+		this.numItems = numItems;
+		this.meanLength = meanLength;
+		this.seed = seed;
+
+		zipfCdf = new double[numItems];
+		double total = 0;
+		for(int k = 0; k < numItems; k++){
+			total += 1 / Math.pow(k + 1, zipfExponent);
+			zipfCdf[k] = total;
+		}
+		for(int k = 0; k < numItems; k++)
+			zipfCdf[k] /= total;
+
+		// PLANT
+		SplittableRandom random = new SplittableRandom(seed);
+		planted = new int[numPlanted][];
+		plantedRates = new double[numPlanted];
+		for(int p = 0; p < numPlanted; p++){
+			int size = 2 + random.nextInt(Math.min(MAX_PLANTED_SIZE, numItems) - 1);
+			int[] itemset = random.ints(0, numItems).distinct().limit(size).sorted().toArray();
+			planted[p] = itemset;
+			plantedRates[p] = MIN_PLANTED_RATE + random.nextDouble() * (MAX_PLANTED_RATE - MIN_PLANTED_RATE);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		if(args.length < 2 || args.length > 7){
+			System.out.println("Usage of BasketGenerator:\t<output file> <number of baskets> [items, default 16470] [zipf exponent, default 1] [mean basket length, default 10] [planted itemsets, default 20] [seed, default 1]\nex.\t\t$ synthetic.txt 10000000 50000 1.1 12 30 7");
+			return;
+		}
+
+		String fileName = args[0];
+		long numBaskets = Long.parseLong(args[1]);
+		int numItems = (args.length >= 3) ? Integer.parseInt(args[2]) : 16470;
+		double zipfExponent = (args.length >= 4) ? Double.parseDouble(args[3]) : 1;
+		double meanLength = (args.length >= 5) ? Double.parseDouble(args[4]) : 10;
+		int numPlanted = (args.length >= 6) ? Integer.parseInt(args[5]) : 20;
+		long seed = (args.length == 7) ? Long.parseLong(args[6]) : 1;
+
+		final long startTime1 = System.currentTimeMillis();
+
+		BasketGenerator generator = new BasketGenerator(numItems, zipfExponent, meanLength, numPlanted, seed);
+		long[] plantedCounts;
+		long bytes;
+		try(OutputStream out = new BufferedOutputStream(new FileOutputStream(fileName), 1 << 20)){
+			plantedCounts = new long[numPlanted];
+			bytes = generator.write(numBaskets, out, plantedCounts);
+		}
+		generator.write_truth(fileName + ".planted", plantedCounts);
+
+		final long endTime = System.currentTimeMillis();
+		System.out.println("Baskets written: " + numBaskets + " (" + bytes + " bytes)");
+		System.out.println("Planted itemsets: " + numPlanted + " (see " + fileName + ".planted)");
+		System.out.println("Total execution time: " + (endTime - startTime1));
+	}
+
+	// BASKETS, writes numBaskets lines to out and adds up how often each itemset was planted, returns the bytes written
+	public long write(long numBaskets, OutputStream out, long[] plantedCounts) throws IOException{
+		long numChunks = (numBaskets + CHUNK_BASKETS - 1) / CHUNK_BASKETS;
+		int window = 2 * PassRunner.threads();
+		ArrayDeque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>();
+		long bytes = 0;
+		for(long c = 0; c < numChunks || !pending.isEmpty(); ){
+			if(c < numChunks && pending.size() < window){
+				long chunk = c++;
+				int size = (int)Math.min(CHUNK_BASKETS, numBaskets - chunk * CHUNK_BASKETS);
+				pending.add(PassRunner.pool().submit(() -> chunk(chunk, size)));
+				continue;
+			}
+			Chunk done;
+			try {
+				done = pending.poll().get();
+			}
+			catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while generating baskets", e);
+			}
+			catch(ExecutionException e){
+				throw new IOException("Generating baskets failed", e.getCause());
+			}
+			out.write(done.bytes, 0, done.length);
+			bytes += done.length;
+			for(int p = 0; p < plantedCounts.length; p++)
+				plantedCounts[p] += done.planted[p];
+		}
+		return bytes;
+	}
+
+	// the baskets of one chunk, from a generator that only depends on the seed and the chunk number
+	private Chunk chunk(long chunk, int size){
+		SplittableRandom random = new SplittableRandom(seed + (chunk + 1) * 0x9E3779B97F4A7C15L);
+		Chunk out = new Chunk(planted.length);
+		int[] basket = new int[64];
+		double expMinusMean = Math.exp(-(meanLength - 1));
+
+		for(int b = 0; b < size; b++){
+			int length = 1 + poisson(random, meanLength - 1, expMinusMean);
+			int n = 0;
+			for(int k = 0; k < length; k++){
+				if(n == basket.length)
+					basket = Arrays.copyOf(basket, n * 2);
+				basket[n++] = zipf(random);
+			}
+			for(int p = 0; p < planted.length; p++){
+				if(random.nextDouble() < plantedRates[p]){
+					out.planted[p]++;
+					if(n + planted[p].length > basket.length)
+						basket = Arrays.copyOf(basket, (n + planted[p].length) * 2);
+					for(int item : planted[p])
+						basket[n++] = item;
+				}
+			}
+			Arrays.sort(basket, 0, n);
+			for(int k = 0; k < n; k++){
+				if(k > 0 && basket[k] == basket[k - 1])
+					continue;
+				out.write_int(basket[k]);
+				out.write_byte(' ');
+			}
+			out.write_byte('\n');
+		}
+		return out;
+	}
+
+	// item id with Zipf popularity, by binary search on the cumulative distribution
+	private int zipf(SplittableRandom random){
+		int k = Arrays.binarySearch(zipfCdf, random.nextDouble());
+		return Math.min((k >= 0) ? k : -k - 1, numItems - 1);
+	}
+
+	// Knuth's method for small means, a rounded normal for large ones
+	private static int poisson(SplittableRandom random, double mean, double expMinusMean){
+		if(mean <= 0)
+			return 0;
+		if(mean > 30)
+			return (int)Math.max(0, Math.round(mean + Math.sqrt(mean) * random.nextGaussian()));
+		int k = 0;
+		for(double product = random.nextDouble(); product > expMinusMean; product *= random.nextDouble())
+			k++;
+		return k;
+	}
+
+	// TRUTH
+	public void write_truth(String fileName, long[] plantedCounts) throws IOException{
+		try(PrintWriter out = new PrintWriter(fileName)){
+			out.printf("ITEMSET\tPLANTED\tRATE %%\n");
+			for(int p = 0; p < planted.length; p++){
+				StringBuilder itemset = new StringBuilder("{");
+				for(int k = 0; k < planted[p].length; k++)
+					itemset.append((k == 0) ? "" : ",").append(planted[p][k]);
+				out.printf("%s\t%d\t%.3f\n", itemset.append("}"), plantedCounts[p], plantedRates[p] * 100);
+			}
+		}
+	}
+}
@@ -0,0 +1,198 @@
+/*
+ * Basket Reader -- Memory-Mapped Basket Source Shared by Every Pass
+ *
+ * The basket file is mapped with FileChannel.map in windows of up to WINDOW_SIZE bytes and read
+ * straight from the mapping. Item ids are parsed from the ASCII digits into one reused int[] basket
+ * buffer, so no String, StringTokenizer or boxed Integer is made per line. Each basket is handed to
+ * a BasketConsumer together with its length; the buffer is only valid during that call.
+ *
+ * A binary file written by BinaryBaskets is recognized by its header and read through it instead,
+ * so every miner accepts either format through the same file name argument.
+ *
+ * Baskets are cut off the same way the old BufferedReader loops did it: the line that brings the
+ * basket count up to dataSetSize is counted but not processed.
+ */
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+public class BasketReader {
+
+	// callback given each basket, basket[0..length-1] holds the item ids of the line
+	public interface BasketConsumer {
+		void accept(int[] basket, int length);
+	}
+
+	// largest mapping used at once, baskets never straddle two windows
+	private static final long WINDOW_SIZE = 1L << 28;
+
+	// number of lines in the file, what the old readLine() counting loop in main returned
+	public static int count_baskets(String fileName) throws IOException{
+		try(RandomAccessFile file = new RandomAccessFile(fileName, "r"); FileChannel channel = file.getChannel()){
+			if(BinaryBaskets.is_binary(channel))
+				return BinaryBaskets.num_baskets(BinaryBaskets.read_header(channel));
+			return count_lines(channel, 0, channel.size());
+		}
+	}
+
+	// number of lines starting in the byte range [start, end), a last line without '\n' included
+	public static int count_lines(FileChannel channel, long start, long end) throws IOException{
+		int numLines = 0;
+		byte last = '\n';
+		for(long base = start; base < end; base += WINDOW_SIZE){
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, base, Math.min(WINDOW_SIZE, end - base));
+			int limit = buf.limit();
+			for(int pos = 0; pos < limit; pos++){
+				if(buf.get(pos) == '\n')
+					numLines++;
+			}
+			last = buf.get(limit - 1);
+		}
+		if(last != '\n')
+			numLines++;
+		return numLines;
+	}
+
+	// offset of the first line starting at or after pos
+	public static long next_line(FileChannel channel, long pos) throws IOException{
+		if(pos == 0)
+			return 0;
+		long size = channel.size();
+		ByteBuffer buf = ByteBuffer.allocate(4096);
+		pos--;	// pos itself starts a line if the byte before it is '\n'
+		while(pos < size){
+			buf.clear();
+			int n = channel.read(buf, pos);
+			if(n <= 0)
+				break;
+			for(int k = 0; k < n; k++)
+				if(buf.get(k) == '\n')
+					return pos + k + 1;
+			pos += n;
+		}
+		return size;
+	}
+
+	// offset just past the first n lines starting at start (the end of the file if it has fewer)
+	public static long skip_lines(FileChannel channel, long start, long n) throws IOException{
+		long size = channel.size();
+		for(long base = start; base < size && n > 0; base += WINDOW_SIZE){
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, base, Math.min(WINDOW_SIZE, size - base));
+			int limit = buf.limit();
+			for(int pos = 0; pos < limit; pos++){
+				if(buf.get(pos) == '\n' && --n == 0)
+					return base + pos + 1;
+			}
+		}
+		return size;
+	}
+
+	// reads every basket before the dataSetSize cut-off, returns the number of baskets counted
+	public static int read(String fileName, double dataSetSize, BasketConsumer consumer) throws IOException{
+		try(RandomAccessFile file = new RandomAccessFile(fileName, "r"); FileChannel channel = file.getChannel()){
+			if(BinaryBaskets.is_binary(channel))
+				return BinaryBaskets.read(channel, dataSetSize, consumer);
+			return read(channel, 0, channel.size(), dataSetSize, consumer);
+		}
+	}
+
+	// reads the baskets of the byte range [start, end) of an open channel, start must begin a line
+	public static int read(FileChannel channel, long start, long end, double dataSetSize, BasketConsumer consumer) throws IOException{
+		int[] basket = new int[64];
+		int numBaskets = 0;
+		long base = start;
+
+		while(base < end){
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, base, Math.min(WINDOW_SIZE, end - base));
+			int limit = buf.limit();
+			boolean lastWindow = base + limit >= end;
+			int pos = 0;
+
+			while(pos < limit){
+				// a line cut by the end of a mapping is picked up again by the next window
+				int lineEnd = pos;
+				while(lineEnd < limit && buf.get(lineEnd) != '\n')
+					lineEnd++;
+				if(lineEnd == limit && !lastWindow){
+					if(pos == 0)
+						throw new IOException("Basket longer than " + WINDOW_SIZE + " bytes at offset " + base);
+					break;
+				}
+
+				if(++numBaskets >= dataSetSize)
+					return numBaskets;
+
+				int length = 0;
+				long num = 0;
+				boolean inNumber = false;
+				boolean negative = false;
+				for(int k = pos; k < lineEnd; k++){
+					byte c = buf.get(k);
+					if(c >= '0' && c <= '9'){
+						num = num * 10 + (c - '0');
+						inNumber = true;
+						// same range as Integer.parseInt
+						if(num > (negative ? -(long)Integer.MIN_VALUE : Integer.MAX_VALUE))
+							throw new NumberFormatException("Item id out of int range at offset " + (base + k) + " in line \"" + line(buf, pos, lineEnd) + "\"");
+					}
+					else if(c == '-' && !inNumber){
+						negative = true;
+					}
+					else if(c == ' ' || c == '\t' || c == '\r'){
+						if(inNumber){
+							if(length == basket.length)
+								basket = Arrays.copyOf(basket, length * 2);
+							basket[length++] = (int)(negative ? -num : num);
+						}
+						num = 0;
+						inNumber = false;
+						negative = false;
+					}
+					else {
+						throw new NumberFormatException("Unexpected character '" + (char)c + "' at offset " + (base + k));
+					}
+				}
+				if(inNumber){
+					if(length == basket.length)
+						basket = Arrays.copyOf(basket, length * 2);
+					basket[length++] = (int)(negative ? -num : num);
+				}
+
+				consumer.accept(basket, length);
+				pos = lineEnd + 1;
+			}
+			base += pos;
+		}
+		return numBaskets;
+	}
+
+	// sorts basket[0..length-1] in place (unless it already is in increasing order) and drops the items
+	// listed more than once, returns how many distinct items are left at the front
+	public static int distinct(int[] basket, int length){
+		boolean increasing = true;
+		for(int k = 1; k < length && increasing; k++)
+			increasing = basket[k] > basket[k - 1];
+		if(increasing)
+			return length;
+		Arrays.sort(basket, 0, length);
+		int n = 0;
+		for(int k = 0; k < length; k++)
+			if(n == 0 || basket[k] != basket[n - 1])
+				basket[n++] = basket[k];
+		return n;
+	}
+
+	// text of the line buf[start..end-1] for error messages, cut short when it is long
+	private static String line(ByteBuffer buf, int start, int end){
+		StringBuilder text = new StringBuilder();
+		for(int k = start; k < Math.min(end, start + 200); k++)
+			text.append((char)buf.get(k));
+		if(end - start > 200)
+			text.append("...");
+		return text.toString().trim();
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * Benchmark -- Repeatable Timings of the Miners and Their Hot Loops
+ *
+ * WARMUP:      Every benchmark is run bench.warmup times (default 3) first, so the JIT has compiled
+ * 				the hot loops before anything is measured.
+ * MEASURE:     Then it is run bench.iterations times (default 5), reporting the mean and standard
+ * 				deviation of the time per run, the bytes allocated per run by all threads (the workers
+ * 				of PassRunner included) and the collections and GC time per run.
+ *
+ * END TO END:  The main of Apriori, Pcy, Multihash and Multistage for every file, support and dataset
+ * 				size given, with System.out sent to a null stream so printing to the console is not
+ * 				what gets measured.
+ * MICRO:       Basket parsing (BasketReader.read), the first pass of Pcy (bucket hashing), pair
+ * 				counting into both PairCounter modes from baskets held in memory, and the PairHash
+ * 				families on their own.
+ *
+ * A benchmark name filter (regular expression) picks a subset, e.g. "pcy|parse".
+ */
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.regex.Pattern;
+
+public class Benchmark {
+
+	// one benchmarked operation, the returned value is kept so the work cannot be optimized away
+	private interface Operation {
+		long run() throws Exception;
+	}
+
+	private static final int WARMUP = Integer.getInteger("bench.warmup", 3);
+	private static final int ITERATIONS = Integer.getInteger("bench.iterations", 5);
+
+	private static long sink;
+
+	public static void main(String[] args) throws Exception {
+
+		if(args.length < 1 || args.length > 4){
+			System.out.println("Usage of Benchmark:\t<file>[,<file>...] [support %s, default 1,2] [dataset size %s, default 50,100] [name filter]\nex.\t\t$ retail.txt 1,2 50,100 pcy|parse");
+			return;
+		}
+
+		String[] files = args[0].split(",");
+		String[] supports = (args.length >= 2) ? args[1].split(",") : new String[]{ "1", "2" };
+		String[] dataSets = (args.length >= 3) ? args[2].split(",") : new String[]{ "50", "100" };
+		Pattern filter = Pattern.compile((args.length == 4) ? args[3] : ".*", Pattern.CASE_INSENSITIVE);
+
+		System.out.printf("%-28s %-22s %12s %10s %12s %8s %10s\n", "BENCHMARK", "PARAMS", "MS/OP", "+-", "MB ALLOC/OP", "GC/OP", "GC MS/OP");
+
+		for(String file : files){
+			// END TO END
+			for(String miner : new String[]{ "Apriori", "Pcy", "Multihash", "Multistage" }){
+				for(String support : supports){
+					for(String dataSet : dataSets){
+						String[] minerArgs = { file, support, dataSet };
+						run(filter, miner.toLowerCase(), file + " s=" + support + " d=" + dataSet, () -> {
+							run_main(miner, minerArgs);
+							return 0;
+						});
+					}
+				}
+			}
+
+			// MICRO
+			int numBaskets = BasketReader.count_baskets(file);
+			run(filter, "parse", file, () -> {
+				long[] sum = new long[1];
+				BasketReader.read(file, numBaskets, (basket, basket_length) -> {
+					for(int k = 0; k < basket_length; k++)
+						sum[0] += basket[k];
+				});
+				return sum[0];
+			});
+			run(filter, "bucket_hashing", file, () -> Miner.first_pass(file, 0, Long.MAX_VALUE, numBaskets, new int[]{ BucketBitmap.num_buckets() }, null, Miner.Strategy.pcy().hashes(), null).buckets[0][0]);
+
+			if(filter.matcher("pair_counting").find() || filter.matcher("pair_hash").find()){
+				BasketBuffer baskets = new BasketBuffer();
+				BasketReader.read(file, numBaskets, baskets::add);
+				for(String support : supports){
+					double minSupport = numBaskets * Double.parseDouble(support) / 100;
+					PassCounters itemPass = PassCounters.items_and_buckets().get();
+					baskets.forEach(itemPass::count_items);
+					FrequentItems freq_items = FrequentItems.from_counts(itemPass, minSupport);
+					run(filter, "pair_counting triangular", file + " s=" + support, () -> count_pairs(baskets, freq_items, PairCounter.triangular(freq_items.size())));
+					run(filter, "pair_counting hashed", file + " s=" + support, () -> count_pairs(baskets, freq_items, PairCounter.hashed(freq_items.size() * 4)));
+				}
+				for(String family : new String[]{ "murmur", "multiply", "legacy" }){
+					PairHash hash = PairHash.family(family, 1, BucketBitmap.num_buckets(), PairHash.seed())[0];
+					run(filter, "pair_hash " + family, file, () -> {
+						long[] sum = new long[1];
+						baskets.forEach((basket, basket_length) -> {
+							for(int i = 0; i < basket_length; i++)
+								for(int j = (i + 1); j < basket_length; j++)
+									sum[0] += hash.bucket(basket[i], basket[j]);
+						});
+						return sum[0];
+					});
+				}
+			}
+		}
+		System.out.println("(blackhole " + (sink & 1) + ")");
+	}
+
+	// second pass of Pcy without the bucket check, over baskets already in memory
+	private static long count_pairs(BasketBuffer baskets, FrequentItems freq_items, PairCounter pairs){
+		baskets.forEach((basket, basket_length) -> {
+			int freq_length = freq_items.filter(basket, basket_length, basket);
+			for(int i = 0; i < freq_length; i++)
+				for(int j = (i + 1); j < freq_length; j++)
+					pairs.increment(basket[i], basket[j]);
+		});
+		return pairs.size();
+	}
+
+	private static void run_main(String miner, String[] args) throws Exception{
+		switch(miner){
+		case "Apriori":		Apriori.main(args); break;
+		case "Pcy":			Pcy.main(args); break;
+		case "Multihash":	Multihash.main(args); break;
+		case "Multistage":	Multistage.main(args); break;
+		default:			throw new IllegalArgumentException("Unknown miner: " + miner);
+		}
+	}
+
+	private static void run(Pattern filter, String name, String params, Operation operation) throws Exception{
+		if(!filter.matcher(name).find())
+			return;
+		PrintStream console = System.out;
+		PrintStream nowhere = new PrintStream(OutputStream.nullOutputStream());
+		double[] millis = new double[ITERATIONS];
+		long allocated = 0;
+		long collections = 0;
+		long gcMillis = 0;
+		try {
+			System.setOut(nowhere);
+			for(int w = 0; w < WARMUP; w++)
+				sink += operation.run();
+			for(int it = 0; it < ITERATIONS; it++){
+				long bytesBefore = PassMetrics.allocated_bytes();
+				long[] gcBefore = PassMetrics.gc_counts();
+				long start = System.nanoTime();
+				sink += operation.run();
+				millis[it] = (System.nanoTime() - start) / 1e6;
+				long[] gcAfter = PassMetrics.gc_counts();
+				allocated += PassMetrics.allocated_bytes() - bytesBefore;
+				collections += gcAfter[0] - gcBefore[0];
+				gcMillis += gcAfter[1] - gcBefore[1];
+			}
+		}
+		finally {
+			System.setOut(console);
+		}
+
+		double mean = 0;
+		for(double m : millis)
+			mean += m / ITERATIONS;
+		double variance = 0;
+		for(double m : millis)
+			variance += (m - mean) * (m - mean) / Math.max(1, ITERATIONS - 1);
+		System.out.printf("%-28s %-22s %12.2f %10.2f %12.2f %8.2f %10.2f\n", name, params, mean, Math.sqrt(variance),
+				allocated / 1048576.0 / ITERATIONS, (double)collections / ITERATIONS, (double)gcMillis / ITERATIONS);
+	}
+}
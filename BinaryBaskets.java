@@ -0,0 +1,303 @@
+/*
+ * Binary Baskets -- Compact Basket File Written Once From retail.txt
+ *
+ * Converts a text basket file into a length-prefixed binary file so later runs skip the ASCII
+ * parsing and scan far fewer bytes. BasketReader recognizes the file by its magic number, so every
+ * miner takes either the .txt or the binary file through the same <file> argument.
+ *
+ * LAYOUT:      HEADER_SIZE byte header: magic "BSKT", version, encoding, 2 reserved bytes, number
+ * 				of baskets (int), largest item id (int), offset of the basket index (long).
+ * 				Then one record per basket, then the basket index: the number of entries (int) and
+ * 				the byte offset (long) of every INDEX_STRIDE-th basket, used to split the file.
+ * PLAIN:       record is the basket length followed by the item ids, all 4 byte ints.
+ * DELTA:       record is the basket length as a varint, the first item id zigzag varint encoded,
+ * 				then the gap to each following item as a varint. Item ids are sorted in this mode.
+ *
+ * Usage:       $ java BinaryBaskets retail.txt retail.bsk [plain|delta]
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+public class BinaryBaskets {
+
+	public static final int MAGIC = 0x42534B54;	// "BSKT"
+	public static final byte VERSION = 1;
+	public static final byte PLAIN = 0;
+	public static final byte DELTA = 1;
+	public static final int HEADER_SIZE = 24;
+	public static final int INDEX_STRIDE = 4096;
+
+	// largest mapping used at once, records never straddle two windows
+	private static final long WINDOW_SIZE = 1L << 28;
+
+	public static void main(String[] args) throws Exception {
+
+		if(args.length < 2 || args.length > 3){
+			System.out.println("Usage of BinaryBaskets:\t<text file> <binary file> [plain|delta]\nex.\t\t$ retail.txt retail.bsk delta");
+			return;
+		}
+
+		byte encoding = (args.length == 3 && args[2].equals("plain")) ? PLAIN : DELTA;
+		final long startTime1 = System.currentTimeMillis();
+		int numBaskets = convert(args[0], args[1], encoding);
+		final long endTime = System.currentTimeMillis();
+
+		System.out.println("Baskets written: " + numBaskets);
+		System.out.println("Total execution time: " + (endTime - startTime1));
+	}
+
+	// writes every basket of a text file into the binary format, returns the number of baskets
+	public static int convert(String textFile, String binaryFile, byte encoding) throws IOException{
+
+		RecordWriter writer;
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(binaryFile), 1 << 16))){
+			out.write(new byte[HEADER_SIZE]);	// filled in once the counts are known
+
+			writer = new RecordWriter(out, encoding);
+			BasketReader.read(textFile, Double.POSITIVE_INFINITY, writer);
+			if(writer.error != null)
+				throw writer.error;
+
+			int entries = (writer.numBaskets + INDEX_STRIDE - 1) / INDEX_STRIDE;
+			out.writeInt(entries);
+			for(int e = 0; e < entries; e++)
+				out.writeLong(writer.index[e]);
+		}
+
+		try(RandomAccessFile file = new RandomAccessFile(binaryFile, "rw")){
+			file.writeInt(MAGIC);
+			file.writeByte(VERSION);
+			file.writeByte(encoding);
+			file.writeShort(0);
+			file.writeInt(writer.numBaskets);
+			file.writeInt(writer.maxItem);
+			file.writeLong(writer.position);
+		}
+		return writer.numBaskets;
+	}
+
+	// appends one record per basket and keeps track of what goes in the header and index
+	private static class RecordWriter implements BasketReader.BasketConsumer {
+
+		private final DataOutputStream out;
+		private final byte encoding;
+		private int[] sorted = new int[64];
+		long[] index = new long[16];
+		int numBaskets = 0;
+		int maxItem = -1;
+		long position = HEADER_SIZE;
+		IOException error;
+
+		RecordWriter(DataOutputStream out, byte encoding){
+			this.out = out;
+			this.encoding = encoding;
+		}
+
+		public void accept(int[] basket, int basket_length){
+			if(error != null)
+				return;
+			try {
+				write(basket, basket_length);
+			}
+			catch(IOException e){
+				error = e;
+			}
+		}
+
+		private void write(int[] basket, int basket_length) throws IOException{
+			if(numBaskets % INDEX_STRIDE == 0){
+				int entry = numBaskets / INDEX_STRIDE;
+				if(entry == index.length)
+					index = Arrays.copyOf(index, entry * 2);
+				index[entry] = position;
+			}
+			numBaskets++;
+			for(int k = 0; k < basket_length; k++)
+				maxItem = Math.max(maxItem, basket[k]);
+
+			if(encoding == PLAIN){
+				out.writeInt(basket_length);
+				for(int k = 0; k < basket_length; k++)
+					out.writeInt(basket[k]);
+				position += 4L * (basket_length + 1);
+				return;
+			}
+
+			if(sorted.length < basket_length)
+				sorted = new int[basket_length];
+			System.arraycopy(basket, 0, sorted, 0, basket_length);
+			Arrays.sort(sorted, 0, basket_length);
+			position += write_varint(out, basket_length);
+			for(int k = 0; k < basket_length; k++){
+				if(k == 0)
+					position += write_varint(out, (sorted[0] << 1) ^ (sorted[0] >> 31));
+				else
+					position += write_varint(out, sorted[k] - sorted[k - 1]);
+			}
+		}
+	}
+
+	private static int write_varint(DataOutputStream out, int value) throws IOException{
+		int bytes = 1;
+		while((value & ~0x7F) != 0){
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+			bytes++;
+		}
+		out.writeByte(value);
+		return bytes;
+	}
+
+	// true if the channel holds a binary basket file
+	public static boolean is_binary(FileChannel channel) throws IOException{
+		if(channel.size() < HEADER_SIZE)
+			return false;
+		ByteBuffer magic = ByteBuffer.allocate(4);
+		channel.read(magic, 0);
+		return magic.getInt(0) == MAGIC;
+	}
+
+	public static ByteBuffer read_header(FileChannel channel) throws IOException{
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		channel.read(header, 0);
+		if(header.getInt(0) != MAGIC || header.get(4) != VERSION)
+			throw new IOException("Not a version " + VERSION + " binary basket file");
+		return header;
+	}
+
+	public static int num_baskets(ByteBuffer header){
+		return header.getInt(8);
+	}
+
+	public static int max_item(ByteBuffer header){
+		return header.getInt(12);
+	}
+
+	// byte offsets of every INDEX_STRIDE-th basket, followed by the end of the records
+	public static long[] read_index(FileChannel channel) throws IOException{
+		ByteBuffer header = read_header(channel);
+		long indexOffset = header.getLong(16);
+		ByteBuffer count = ByteBuffer.allocate(4);
+		channel.read(count, indexOffset);
+		int entries = count.getInt(0);
+		ByteBuffer offsets = ByteBuffer.allocate(8 * entries);
+		channel.read(offsets, indexOffset + 4);
+		long[] index = new long[entries + 1];
+		for(int e = 0; e < entries; e++)
+			index[e] = offsets.getLong(8 * e);
+		index[entries] = indexOffset;
+		return index;
+	}
+
+	// reads every basket before the dataSetSize cut-off, same contract as BasketReader.read
+	public static int read(FileChannel channel, double dataSetSize, BasketReader.BasketConsumer consumer) throws IOException{
+		ByteBuffer header = read_header(channel);
+		return read(channel, header.get(5), HEADER_SIZE, header.getLong(16), dataSetSize, consumer);
+	}
+
+	// reads the records in the byte range [start, end), start must begin a record
+	public static int read(FileChannel channel, byte encoding, long start, long end, double dataSetSize, BasketReader.BasketConsumer consumer) throws IOException{
+		int[] basket = new int[64];
+		int numBaskets = 0;
+		long base = start;
+
+		while(base < end){
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, base, Math.min(WINDOW_SIZE, end - base));
+			int limit = buf.limit();
+			boolean lastWindow = base + limit >= end;
+			int pos = 0;
+
+			while(pos < limit){
+				// a record cut by the end of a mapping is picked up again by the next window
+				int recordEnd = record_end(buf, pos, limit, encoding);
+				if(recordEnd < 0){
+					if(lastWindow)
+						throw new IOException("Truncated basket record at offset " + (base + pos));
+					if(pos == 0)
+						throw new IOException("Basket longer than " + WINDOW_SIZE + " bytes at offset " + base);
+					break;
+				}
+
+				if(++numBaskets >= dataSetSize)
+					return numBaskets;
+
+				int length;
+				if(encoding == PLAIN){
+					length = buf.getInt(pos);
+					if(basket.length < length)
+						basket = new int[Math.max(length, basket.length * 2)];
+					for(int k = 0; k < length; k++)
+						basket[k] = buf.getInt(pos + 4 + 4 * k);
+				}
+				else {
+					int p = pos;
+					int value = 0;
+					int shift = 0;
+					byte b;
+					do {
+						b = buf.get(p++);
+						value |= (b & 0x7F) << shift;
+						shift += 7;
+					} while(b < 0);
+					length = value;
+					if(basket.length < length)
+						basket = new int[Math.max(length, basket.length * 2)];
+					int previous = 0;
+					for(int k = 0; k < length; k++){
+						value = 0;
+						shift = 0;
+						do {
+							b = buf.get(p++);
+							value |= (b & 0x7F) << shift;
+							shift += 7;
+						} while(b < 0);
+						previous = (k == 0) ? ((value >>> 1) ^ -(value & 1)) : previous + value;
+						basket[k] = previous;
+					}
+				}
+
+				consumer.accept(basket, length);
+				pos = recordEnd;
+			}
+			base += pos;
+		}
+		return numBaskets;
+	}
+
+	// end of the record starting at pos, or -1 if it runs past limit
+	private static int record_end(MappedByteBuffer buf, int pos, int limit, byte encoding){
+		if(encoding == PLAIN){
+			if(pos + 4 > limit)
+				return -1;
+			long end = pos + 4 + 4L * buf.getInt(pos);
+			return end > limit ? -1 : (int)end;
+		}
+		int p = pos;
+		int length = 0;
+		int shift = 0;
+		byte b;
+		do {
+			if(p >= limit)
+				return -1;
+			b = buf.get(p++);
+			length |= (b & 0x7F) << shift;
+			shift += 7;
+		} while(b < 0);
+		for(int k = 0; k < length; k++){
+			do {
+				if(p >= limit)
+					return -1;
+				b = buf.get(p++);
+			} while(b < 0);
+		}
+		return p;
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * Bucket Bitmap -- Frequent Buckets Packed One Bit Per Bucket
+ *
+ * The bitVector built between the passes of Pcy, Multihash and Multistage. Bucket b is frequent when
+ * bit (b % 64) of words[b / 64] is set, so a table of a million buckets takes 128 KB and stays in
+ * cache while the pair loops test it. bit() returns the bit as 0 or 1 without a branch, so the tests
+ * of several tables can be combined with & before a single compare.
+ *
+ * The number of buckets is read from the system property miner.buckets (e.g. -Dminer.buckets=4000000)
+ * and defaults to the number of baskets in retail.txt, the size the tables have always had. More
+ * buckets means fewer infrequent pairs sharing a frequent bucket, so fewer false candidates.
+ */
+
+public class BucketBitmap {
+
+	private final long[] words;
+	private final int size;
+	private final int cardinality;
+
+	private BucketBitmap(long[] words, int size, int cardinality){
+		this.words = words;
+		this.size = size;
+		this.cardinality = cardinality;
+	}
+
+	// buckets whose count reaches the support threshold are frequent
+	public static BucketBitmap from_counts(int[] buckets, double support){
+		long[] words = new long[(buckets.length + 63) >>> 6];
+		int cardinality = 0;
+		for(int b = 0; b < buckets.length; b++){
+			if(buckets[b] >= support){
+				words[b >>> 6] |= 1L << b;
+				cardinality++;
+			}
+		}
+		return new BucketBitmap(words, buckets.length, cardinality);
+	}
+
+	// same as above for a table kept off the heap
+	public static BucketBitmap from_counts(OffHeapArray buckets, double support){
+		int length = (int)buckets.length();
+		long[] words = new long[(length + 63) >>> 6];
+		int cardinality = 0;
+		for(int b = 0; b < length; b++){
+			if(buckets.get_int(b) >= support){
+				words[b >>> 6] |= 1L << b;
+				cardinality++;
+			}
+		}
+		return new BucketBitmap(words, length, cardinality);
+	}
+
+	// total number of buckets, split evenly between the tables of a pass that hashes to several
+	public static int num_buckets(){
+		int buckets = Integer.getInteger("miner.buckets", 88162);
+		if(buckets < 1)
+			throw new IllegalArgumentException("Bucket count must be at least 1: " + buckets);
+		return buckets;
+	}
+
+	// 1 if the bucket is frequent, 0 if not
+	public long bit(int bucket){
+		return (words[bucket >>> 6] >>> bucket) & 1L;
+	}
+
+	public boolean get(int bucket){
+		return bit(bucket) != 0;
+	}
+
+	public int size(){
+		return size;
+	}
+
+	// number of frequent buckets
+	public int cardinality(){
+		return cardinality;
+	}
+}
@@ -0,0 +1,184 @@
+/*
+ * Checkpoint -- Pass Results Saved Between Runs Over a Growing Basket File
+ *
+ * Holds what a run of Multistage found out about the first lines of a text basket file: the count of
+ * every item, the counts of the first hash table, and the exact count of every pair that reached the
+ * support threshold, together with how many lines were processed and the byte offset of the next
+ * one. A later run over the same file with baskets appended only has to read from that offset on
+ * (see Multistage.remine).
+ *
+ * The checkpoint is only used when the support percentage, the bucket count and the hash family
+ * are the same as when it was written, the file is text, and the 64 KB before the saved offset
+ * still have the same CRC32, which catches a file that was rewritten rather than appended to.
+ *
+ * File layout (DataOutputStream, big-endian): magic "MSCK", version, support %, baskets used,
+ * lines processed, offset, fingerprint, bucket count, hash family, hash seed, item counts, bucket
+ * counts, and the pairs as (smaller item, larger item, count).
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+public class Checkpoint {
+
+	private static final int MAGIC = 0x4D53434B;	// "MSCK"
+	private static final int VERSION = 1;
+	private static final int FINGERPRINT_BYTES = 1 << 16;
+
+	public final int thresholdPercent;
+	public final double basketsUsed;	// dataSetSize of the run, the support was computed from it
+	public final long processed;		// lines before the cut-off, all of them read
+	public final long offset;			// byte offset of the first line not read
+	public final long fingerprint;
+	public final int numBuckets;
+	public final String hash;
+	public final long hashSeed;
+	public final int[] items;			// count of every item, indexed by item id
+	public final int[] buckets;			// counts of the first hash table
+	public final PairCounter pairs;		// (smaller item, larger item) -> count, every pair >= support
+
+	public Checkpoint(int thresholdPercent, double basketsUsed, long processed, long offset, long fingerprint, int[] items, int[] buckets, PairCounter pairs){
+		this(thresholdPercent, basketsUsed, processed, offset, fingerprint, buckets.length, PairHash.family_name(), PairHash.seed(), items, buckets, pairs);
+	}
+
+	private Checkpoint(int thresholdPercent, double basketsUsed, long processed, long offset, long fingerprint, int numBuckets, String hash, long hashSeed, int[] items, int[] buckets, PairCounter pairs){
+		this.thresholdPercent = thresholdPercent;
+		this.basketsUsed = basketsUsed;
+		this.processed = processed;
+		this.offset = offset;
+		this.fingerprint = fingerprint;
+		this.numBuckets = numBuckets;
+		this.hash = hash;
+		this.hashSeed = hashSeed;
+		this.items = items;
+		this.buckets = buckets;
+		this.pairs = pairs;
+	}
+
+	// the checkpoint saved at path, or null if there is none
+	public static Checkpoint load(String path) throws IOException{
+		if(!new File(path).exists())
+			return null;
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))){
+			if(in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException("Not a checkpoint file: " + path);
+			int thresholdPercent = in.readInt();
+			double basketsUsed = in.readDouble();
+			long processed = in.readLong();
+			long offset = in.readLong();
+			long fingerprint = in.readLong();
+			int numBuckets = in.readInt();
+			String hash = in.readUTF();
+			long hashSeed = in.readLong();
+			int[] items = new int[in.readInt()];
+			for(int item = 0; item < items.length; item++)
+				items[item] = in.readInt();
+			int[] buckets = new int[in.readInt()];
+			for(int b = 0; b < buckets.length; b++)
+				buckets[b] = in.readInt();
+			int numPairs = in.readInt();
+			PairCounter pairs = PairCounter.hashed(numPairs);
+			for(int p = 0; p < numPairs; p++)
+				pairs.add(in.readInt(), in.readInt(), in.readInt());
+			return new Checkpoint(thresholdPercent, basketsUsed, processed, offset, fingerprint, numBuckets, hash, hashSeed, items, buckets, pairs);
+		}
+	}
+
+	// written to a temporary file first, so a crash never leaves half a checkpoint behind
+	public void save(String path) throws IOException{
+		File target = new File(path).getAbsoluteFile();
+		File temp = new File(target.getParentFile(), target.getName() + ".tmp");
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))){
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(thresholdPercent);
+			out.writeDouble(basketsUsed);
+			out.writeLong(processed);
+			out.writeLong(offset);
+			out.writeLong(fingerprint);
+			out.writeInt(numBuckets);
+			out.writeUTF(hash);
+			out.writeLong(hashSeed);
+			out.writeInt(items.length);
+			for(int count : items)
+				out.writeInt(count);
+			out.writeInt(buckets.length);
+			for(int count : buckets)
+				out.writeInt(count);
+			out.writeInt(pairs.size());
+			IOException[] failed = new IOException[1];
+			pairs.forEach((i, j, count) -> {
+				try {
+					out.writeInt(i);
+					out.writeInt(j);
+					out.writeInt(count);
+				}
+				catch(IOException e){
+					failed[0] = e;
+				}
+			});
+			if(failed[0] != null)
+				throw failed[0];
+		}
+		Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	// null if the checkpoint can be picked up by a run with these settings, otherwise the reason it cannot
+	public String mismatch(String fileName, int thresholdPercent, double dataSetSize, int numBuckets) throws IOException{
+		if(thresholdPercent != this.thresholdPercent)
+			return "support " + this.thresholdPercent + "% in checkpoint";
+		if(numBuckets != this.numBuckets || !hash.equals(PairHash.family_name()) || hashSeed != PairHash.seed())
+			return "different buckets or hash functions in checkpoint";
+		if(dataSetSize < basketsUsed)
+			return "fewer baskets asked for than the checkpoint covers";
+		try(RandomAccessFile file = new RandomAccessFile(fileName, "r"); FileChannel channel = file.getChannel()){
+			if(BinaryBaskets.is_binary(channel))
+				return "checkpoints need a text basket file";
+			if(channel.size() < offset || fingerprint(channel, offset) != fingerprint)
+				return "file changed before the checkpoint offset";
+		}
+		return null;
+	}
+
+	// checkpoints are kept for text basket files only, a binary file cannot be appended to
+	public static boolean is_text(String fileName) throws IOException{
+		try(RandomAccessFile file = new RandomAccessFile(fileName, "r"); FileChannel channel = file.getChannel()){
+			return !BinaryBaskets.is_binary(channel);
+		}
+	}
+
+	// lines processed and offset of the next line once a run with dataSetSize has read from (processed, offset)
+	public static long[] advance(String fileName, long processed, long offset, double dataSetSize) throws IOException{
+		try(RandomAccessFile file = new RandomAccessFile(fileName, "r"); FileChannel channel = file.getChannel()){
+			// same cut-off as BasketReader.read: the line reaching dataSetSize is counted but not read
+			long available = BasketReader.count_lines(channel, offset, channel.size());
+			long read = Math.max(0, Math.min(available, (long)Math.ceil(dataSetSize - processed) - 1));
+			long next = BasketReader.skip_lines(channel, offset, read);
+			return new long[]{ processed + read, next, fingerprint(channel, next) };
+		}
+	}
+
+	// CRC32 of the bytes just before offset
+	public static long fingerprint(FileChannel channel, long offset) throws IOException{
+		long start = Math.max(0, offset - FINGERPRINT_BYTES);
+		ByteBuffer buf = ByteBuffer.allocate((int)(offset - start));
+		while(buf.hasRemaining() && channel.read(buf, start + buf.position()) > 0)
+			;
+		buf.flip();
+		CRC32 crc = new CRC32();
+		crc.update(buf);
+		return crc.getValue();
+	}
+}
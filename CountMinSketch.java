@@ -0,0 +1,256 @@
+/*
+ * Count-Min Sketch -- Approximate Pair Counts in Fixed Memory
+ *
+ * depth rows of width int counters, each row with its own PairHash. A pair adds to one counter per
+ * row and its estimate is the smallest of those counters. Updates are conservative: only the counters
+ * holding that smallest value are raised, which keeps the estimates tighter than plain Count-Min with
+ * the same guarantee. An estimate is never below the true count, and with probability 1 - e^-depth it
+ * is at most (e / width) * total above it, total being the number of pair occurrences added.
+ *
+ * HEAVY HITTERS: next to the counters a min-heap keeps the pairs with the largest estimates seen so
+ * far, up to a fixed capacity. A pair only touches the heap when its estimate beats the smallest one
+ * held, so the heap costs nothing for the long tail of rare pairs.
+ *
+ * Sketches built with the same width, depth and seed can be merged by adding their counters, which is
+ * how the per-worker sketches of a parallel pass are combined.
+ */
+
+import java.util.Arrays;
+
+public class CountMinSketch {
+
+	private final int width;
+	private final int depth;
+	private final long seed;
+	private final int[] table;		// row r holds counters r*width .. r*width+width-1
+	private final PairHash[] hashes;
+	private final HeavyHitters heavy;
+	private final int[] cells;		// counters of the pair being added, one per row
+	private long total;
+
+	public CountMinSketch(int width, int depth, long seed, int heavyCapacity){
+		if(width < 1 || depth < 1)
+			throw new IllegalArgumentException("Sketch width and depth must be at least 1: " + width + "x" + depth);
+		if((long)width * depth > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("Sketch too large: " + width + "x" + depth);
+		this.width = width;
+		this.depth = depth;
+		this.seed = seed;
+		this.table = new int[width * depth];
+		this.hashes = PairHash.family("murmur", depth, width, seed);
+		this.heavy = new HeavyHitters(heavyCapacity);
+		this.cells = new int[depth];
+	}
+
+	// adds one occurrence of the pair {i, j}, returns its new estimate
+	public int add(int i, int j){
+		int min = Integer.MAX_VALUE;
+		for(int r = 0; r < depth; r++){
+			cells[r] = r * width + hashes[r].bucket(i, j);
+			min = Math.min(min, table[cells[r]]);
+		}
+		for(int r = 0; r < depth; r++)
+			if(table[cells[r]] == min)
+				table[cells[r]] = min + 1;
+		total++;
+		heavy.offer(PairCounter.pack(Math.min(i, j), Math.max(i, j)), min + 1);
+		return min + 1;
+	}
+
+	public int estimate(int i, int j){
+		int min = Integer.MAX_VALUE;
+		for(int r = 0; r < depth; r++)
+			min = Math.min(min, table[r * width + hashes[r].bucket(i, j)]);
+		return min;
+	}
+
+	// number of pair occurrences added
+	public long total(){
+		return total;
+	}
+
+	// an estimate is at most this much above the true count, with probability 1 - failure_probability()
+	public long error_bound(){
+		return (long)Math.ceil(Math.E / width * total);
+	}
+
+	public double failure_probability(){
+		return Math.exp(-depth);
+	}
+
+	public long bytes(){
+		return 4L * table.length + heavy.bytes();
+	}
+
+	// adds the counters of a sketch with the same shape and seed, and pools the heavy hitters of both
+	public void merge(CountMinSketch other){
+		if(other.width != width || other.depth != depth || other.seed != seed)
+			throw new IllegalArgumentException("Cannot merge sketches of different shape or seed");
+		for(int c = 0; c < table.length; c++)
+			table[c] += other.table[c];
+		total += other.total;
+
+		long[] pairs = heavy.keys();
+		long[] otherPairs = other.heavy.keys();
+		heavy.clear();
+		for(long pair : pairs)
+			heavy.offer(pair, estimate(PairCounter.first(pair), PairCounter.second(pair)));
+		for(long pair : otherPairs)
+			heavy.offer(pair, estimate(PairCounter.first(pair), PairCounter.second(pair)));
+	}
+
+	// the k heavy hitters with the largest current estimates, largest first, as packed (smaller, larger) pairs
+	public long[] top(int k){
+		long[] pairs = heavy.keys();
+		Long[] order = new Long[pairs.length];
+		for(int p = 0; p < pairs.length; p++)
+			order[p] = pairs[p];
+		Arrays.sort(order, (a, b) -> {
+			int ea = estimate(PairCounter.first(a), PairCounter.second(a));
+			int eb = estimate(PairCounter.first(b), PairCounter.second(b));
+			return ea != eb ? Integer.compare(eb, ea) : Long.compare(a, b);
+		});
+		long[] top = new long[Math.min(k, order.length)];
+		for(int p = 0; p < top.length; p++)
+			top[p] = order[p];
+		return top;
+	}
+
+	// min-heap on estimate with an open addressing index from pair to heap position
+	private static final class HeavyHitters {
+
+		private final int capacity;
+		private final long[] heapKeys;
+		private final int[] heapCounts;
+		private final int[] heapSlot;	// index slot of each heap entry
+		private int size;
+
+		private final long[] slotKeys;
+		private final int[] slotPos;	// heap position, -1 when the slot is empty
+		private final int mask;
+
+		HeavyHitters(int capacity){
+			this.capacity = capacity;
+			heapKeys = new long[capacity];
+			heapCounts = new int[capacity];
+			heapSlot = new int[capacity];
+			int slots = 16;
+			while(slots < capacity * 4L)
+				slots <<= 1;
+			slotKeys = new long[slots];
+			slotPos = new int[slots];
+			Arrays.fill(slotPos, -1);
+			mask = slots - 1;
+		}
+
+		long bytes(){
+			return 16L * capacity + 12L * slotKeys.length;
+		}
+
+		void clear(){
+			for(int p = 0; p < size; p++)
+				slotPos[heapSlot[p]] = -1;
+			size = 0;
+		}
+
+		long[] keys(){
+			return Arrays.copyOf(heapKeys, size);
+		}
+
+		void offer(long key, int count){
+			if(capacity == 0 || (size == capacity && count <= heapCounts[0]))
+				return;
+			int slot = find(key);
+			if(slotPos[slot] >= 0){
+				int pos = slotPos[slot];
+				if(count > heapCounts[pos]){
+					heapCounts[pos] = count;
+					sift_down(pos);
+				}
+				return;
+			}
+			if(size < capacity){
+				set(size, key, count, slot);
+				sift_up(size++);
+				return;
+			}
+			// evict the smallest, its slot removal may move the slot found for key
+			remove_slot(heapSlot[0]);
+			slot = find(key);
+			set(0, key, count, slot);
+			sift_down(0);
+		}
+
+		private static int mix(long key){
+			key ^= key >>> 33;
+			key *= 0xff51afd7ed558ccdL;
+			key ^= key >>> 33;
+			return (int)key;
+		}
+
+		// slot holding key, or the empty slot where it would go
+		private int find(long key){
+			int slot = mix(key) & mask;
+			while(slotPos[slot] >= 0 && slotKeys[slot] != key)
+				slot = (slot + 1) & mask;
+			return slot;
+		}
+
+		// backward shift deletion, so no tombstones pile up
+		private void remove_slot(int hole){
+			slotPos[hole] = -1;
+			for(int next = (hole + 1) & mask; slotPos[next] >= 0; next = (next + 1) & mask){
+				int home = mix(slotKeys[next]) & mask;
+				if(((next - home) & mask) >= ((next - hole) & mask)){
+					slotKeys[hole] = slotKeys[next];
+					slotPos[hole] = slotPos[next];
+					heapSlot[slotPos[hole]] = hole;
+					slotPos[next] = -1;
+					hole = next;
+				}
+			}
+		}
+
+		private void set(int pos, long key, int count, int slot){
+			heapKeys[pos] = key;
+			heapCounts[pos] = count;
+			heapSlot[pos] = slot;
+			slotKeys[slot] = key;
+			slotPos[slot] = pos;
+		}
+
+		private void swap(int a, int b){
+			long key = heapKeys[a];
+			int count = heapCounts[a];
+			int slot = heapSlot[a];
+			set(a, heapKeys[b], heapCounts[b], heapSlot[b]);
+			set(b, key, count, slot);
+		}
+
+		private void sift_up(int pos){
+			while(pos > 0){
+				int parent = (pos - 1) >>> 1;
+				if(heapCounts[parent] <= heapCounts[pos])
+					return;
+				swap(pos, parent);
+				pos = parent;
+			}
+		}
+
+		private void sift_down(int pos){
+			while(true){
+				int smallest = pos;
+				int left = 2 * pos + 1;
+				int right = left + 1;
+				if(left < size && heapCounts[left] < heapCounts[smallest])
+					smallest = left;
+				if(right < size && heapCounts[right] < heapCounts[smallest])
+					smallest = right;
+				if(smallest == pos)
+					return;
+				swap(pos, smallest);
+				pos = smallest;
+			}
+		}
+	}
+}
@@ -0,0 +1,263 @@
+/*
+ * Eclat Algorithm -- Frequent Itemsets From Intersections of Basket Id Sets
+ *
+ * FIRST PASS:  Same as the first pass of A-Priori (Apriori.find_freq_items), count every item and keep
+ * 				the ones above the support threshold.
+ * SECOND PASS: The file is turned on its side: every basket gets an id, and every frequent item the
+ * 				set of ids of the baskets holding it, built as a RoaringBitmap. Each worker numbers
+ * 				its own baskets and the lists are joined with an offset, so the ids are unique but
+ * 				not the line numbers. When the triangular matrix of the frequent items fits
+ * 				(PairCounter.TRIANGULAR_LIMIT) the pairs are counted in the same pass as well: one
+ * 				increment per pair of a basket is far cheaper than an intersection per pair of items
+ * 				when baskets are long or items many. FrequentItems.filter hands out each item of a
+ * 				basket once, so an item listed twice gets one id and never makes a pair with itself.
+ * MINING:      The count of an itemset is the size of the intersection of the id sets of its items, so
+ * 				the file is not read again. Depth first over prefixes: the frequent extensions of a
+ * 				prefix by one more item each keep the intersection of their ids, and every pair of
+ * 				extensions is intersected again for the next level. Pairs not counted in the second
+ * 				pass are only counted (RoaringBitmap.and_cardinality) unless a deeper level needs
+ * 				them. The prefixes of one item each are mined in parallel on the PassRunner pool.
+ *
+ * Meant for low support thresholds on dense data, where Apriori and its variants scan the file once
+ * per itemset size. Output has the same format as FpGrowth.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+public class Eclat {
+
+	// id lists of the frequent items built by one worker, ids 0..numBaskets-1
+	private static class TidLists {
+		final int[][] ids;
+		final int[] lengths;
+		final PairCounter pairs;	// counts of the pairs of compact indices, or null
+		int numBaskets;
+
+		TidLists(int numItems, boolean countPairs){
+			ids = new int[numItems][];
+			lengths = new int[numItems];
+			pairs = countPairs ? PairCounter.triangular(numItems) : null;
+		}
+
+		void add(int idx, int id){
+			int[] list = ids[idx];
+			if(list == null)
+				list = ids[idx] = new int[16];
+			else if(lengths[idx] == list.length)
+				list = ids[idx] = Arrays.copyOf(list, list.length * 2);
+			// an item listed twice in a basket is kept once
+			if(lengths[idx] == 0 || list[lengths[idx] - 1] != id)
+				list[lengths[idx]++] = id;
+		}
+
+		// appends the lists of another worker after the baskets of this one
+		void merge(TidLists other){
+			for(int idx = 0; idx < ids.length; idx++){
+				for(int k = 0; k < other.lengths[idx]; k++){
+					add(idx, numBaskets + other.ids[idx][k]);
+				}
+			}
+			numBaskets += other.numBaskets;
+			if(pairs != null)
+				pairs.merge(other.pairs);
+		}
+	}
+
+	// the second pass: basket ids of every frequent item, and the pair counts when they were taken
+	public static class Vertical {
+		public final RoaringBitmap[] tids;
+		public final PairCounter pairs;
+
+		Vertical(RoaringBitmap[] tids, PairCounter pairs){
+			this.tids = tids;
+			this.pairs = pairs;
+		}
+	}
+
+	// frequent itemsets found under one prefix, flat: length, items..., count
+	private static class Found {
+		int[] data = new int[64];
+		int n;
+
+		void add(int[] itemset, int length, int count){
+			if(n + length + 2 > data.length)
+				data = Arrays.copyOf(data, Math.max(data.length * 2, n + length + 2));
+			data[n++] = length;
+			System.arraycopy(itemset, 0, data, n, length);
+			n += length;
+			data[n++] = count;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		if(args.length != 3 && args.length != 4){
+			System.out.println("Usage of Eclat:\t<file> <support threshold %> <dataset size %> [max itemset size, 0 = no limit]\nex.\t\t$ retail.txt 1 100");
+			return;
+		}
+
+		String fileName = args[0];
+		int threshold_percent = Integer.parseInt(args[1]);
+		int dataSetPercentage = Integer.parseInt(args[2]);
+		int maxItemsetSize = (args.length == 4) ? Integer.parseInt(args[3]) : 0;
+		int numBaskets = BasketReader.count_baskets(fileName);
+
+		double basketsToUse = numBaskets * ((double)dataSetPercentage / 100);
+		final long startTime1 = System.currentTimeMillis();
+
+		// FIRST PASS
+		FrequentItems freq_items = Apriori.find_freq_items(fileName, threshold_percent, basketsToUse);
+
+		// SECOND PASS
+		int[] passBaskets = new int[1];
+		Vertical vertical = build_tids(fileName, freq_items, basketsToUse, passBaskets);
+		double support = passBaskets[0] * ((double)threshold_percent / 100);
+
+		// MINING
+		List<ItemsetTrie> itemsets = mine(vertical, support, maxItemsetSize);
+		FpGrowth.print_itemsets(itemsets, freq_items);
+		long outputTime = ResultSink.finish();
+
+		long bitmapBytes = 0;
+		for(RoaringBitmap bitmap : vertical.tids)
+			bitmapBytes += bitmap.bytes();
+		final long endTime = System.currentTimeMillis();
+		System.out.println("\nSupport: " + (int)support);
+		System.out.println("Bitmap bytes: " + bitmapBytes);
+		System.out.println("Total execution time: " + (endTime - startTime1 - outputTime));
+		System.out.println("Output time: " + outputTime);
+		System.out.println("Baskets in dataset: "+ (int)basketsToUse);
+	}
+
+	// SECOND PASS, the basket ids of every frequent item (compact indices)
+	public static Vertical build_tids(String fileName, FrequentItems freq_items, double dataSetSize, int[] numBaskets) throws IOException{
+		int n = freq_items.size();
+		boolean countPairs = PairCounter.triangle_size(n) <= PairCounter.TRIANGULAR_LIMIT;
+		TidLists lists = PassRunner.run(fileName, dataSetSize, () -> new TidLists(n, countPairs), (local, basket, basket_length) -> {
+			int freq_length = freq_items.filter(basket, basket_length, basket);
+			for(int k = 0; k < freq_length; k++)
+				local.add(basket[k], local.numBaskets);
+			local.numBaskets++;
+			if(local.pairs != null)
+				for(int i = 0; i < freq_length; i++)
+					for(int j = (i + 1); j < freq_length; j++)
+						local.pairs.increment(basket[i], basket[j]);
+		}, TidLists::merge, numBaskets);
+
+		RoaringBitmap[] tids = new RoaringBitmap[n];
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for(int idx = 0; idx < n; idx++){
+			int item = idx;
+			tasks.add(() -> {
+				tids[item] = RoaringBitmap.from_sorted(lists.ids[item] == null ? new int[0] : lists.ids[item], lists.lengths[item]);
+				lists.ids[item] = null;
+				return null;
+			});
+		}
+		run_all(tasks);
+		return new Vertical(tids, lists.pairs);
+	}
+
+	// MINING, every frequent itemset of two or more items grouped by size (list index = size - 2)
+	public static List<ItemsetTrie> mine(Vertical vertical, double support, int maxItemsetSize) throws IOException{
+		RoaringBitmap[] tids = vertical.tids;
+		int n = tids.length;
+		int[] all = new int[n];
+		for(int idx = 0; idx < n; idx++)
+			all[idx] = idx;
+
+		// one task per first item, the later items take less work so they are submitted first
+		Found[] found = new Found[n];
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for(int first = n - 1; first >= 0; first--){
+			int idx = first;
+			tasks.add(() -> {
+				found[idx] = new Found();
+				int[] prefix = new int[n + 1];
+				prefix[0] = idx;
+				extend(prefix, 1, tids[idx], all, tids, idx + 1, vertical.pairs, support, maxItemsetSize, found[idx]);
+				return null;
+			});
+		}
+		run_all(tasks);
+
+		List<ItemsetTrie> levels = new ArrayList<ItemsetTrie>();
+		for(Found f : found){
+			for(int pos = 0; pos < f.n; ){
+				int length = f.data[pos];
+				while(levels.size() < length - 1)
+					levels.add(new ItemsetTrie(levels.size() + 2));
+				levels.get(length - 2).put(Arrays.copyOfRange(f.data, pos + 1, pos + 1 + length), f.data[pos + 1 + length]);
+				pos += length + 2;
+			}
+		}
+		for(ItemsetTrie level : levels)
+			level.trim();
+		return levels;
+	}
+
+	// extends prefix[0..length-1], whose ids are prefixIds, by each of items[from..] (with ids itemIds), pairs looked up when counted
+	private static void extend(int[] prefix, int length, RoaringBitmap prefixIds, int[] items, RoaringBitmap[] itemIds, int from, PairCounter pairs, double support, int maxItemsetSize, Found found){
+		if(maxItemsetSize != 0 && length >= maxItemsetSize)
+			return;
+		boolean deeper = (maxItemsetSize == 0 || length + 1 < maxItemsetSize);
+		int[] next = new int[items.length - from];
+		RoaringBitmap[] nextIds = new RoaringBitmap[items.length - from];
+		int m = 0;
+		for(int e = from; e < items.length; e++){
+			int count = (length == 1 && pairs != null) ? pairs.get(prefix[0], items[e]) : prefixIds.and_cardinality(itemIds[e]);
+			if(count < support)
+				continue;
+			prefix[length] = items[e];
+			found.add(prefix, length + 1, count);
+			if(deeper){
+				next[m] = items[e];
+				nextIds[m] = itemIds[e];
+				m++;
+			}
+		}
+		if(m < 2)
+			return;
+		// the extensions become the items of the next level, each with its intersection with the prefix
+		for(int e = 0; e < m; e++)
+			nextIds[e] = prefixIds.and(nextIds[e]);
+		next = Arrays.copyOf(next, m);
+		nextIds = Arrays.copyOf(nextIds, m);
+		for(int e = 0; e < m - 1; e++){
+			prefix[length] = next[e];
+			extend(prefix, length + 1, nextIds[e], next, nextIds, e + 1, null, support, maxItemsetSize, found);
+		}
+	}
+
+	private static void run_all(List<Callable<Void>> tasks) throws IOException{
+		if(PassRunner.threads() == 1){
+			for(Callable<Void> task : tasks){
+				try {
+					task.call();
+				}
+				catch(Exception e){
+					throw new IOException("Mining failed", e);
+				}
+			}
+			return;
+		}
+		for(Future<Void> done : PassRunner.pool().invokeAll(tasks)){
+			try {
+				done.get();
+			}
+			catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while mining", e);
+			}
+			catch(ExecutionException e){
+				throw new IOException("Mining failed", e.getCause());
+			}
+		}
+	}
+}
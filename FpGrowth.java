@@ -0,0 +1,273 @@
+/*
+ * FP-Growth Algorithm -- Finding Frequent Itemsets Without Candidate Generation
+ *
+ * FIRST PASS:  Same as the first pass of A-Priori (Apriori.find_freq_items), count every item and keep
+ * 				the ones above the support threshold.
+ * SECOND PASS: Each basket is cut down to its frequent items, ordered from most to least frequent and
+ * 				inserted into an FP-tree, so baskets sharing a frequent prefix share the nodes of
+ * 				that prefix and the whole file ends up compressed in memory.
+ * MINING:      For every item, least frequent first, the paths leading to its nodes form a conditional
+ * 				pattern base, which is built into a conditional FP-tree and mined recursively. No
+ * 				candidate itemsets are generated and the file is not read again.
+ *
+ * Meant for low support thresholds where the candidate pairs of Apriori, Pcy and Multistage blow up.
+ * Output has the same format as Apriori with a maximum itemset size.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class FpGrowth {
+
+	public static void main(String[] args) throws Exception {
+
+		if(args.length != 3 && args.length != 4){
+			System.out.println("Usage of FpGrowth:\t<file> <support threshold %> <dataset size %> [max itemset size, 0 = no limit]\nex.\t\t$ retail.txt 1 100");
+			return;
+		}
+
+		String fileName = args[0];
+		int threshold_percent = Integer.parseInt(args[1]);
+		int dataSetPercentage = Integer.parseInt(args[2]);
+		int maxItemsetSize = (args.length == 4) ? Integer.parseInt(args[3]) : 0;
+		int numBaskets = BasketReader.count_baskets(fileName);
+
+		double basketsToUse = numBaskets * ((double)dataSetPercentage / 100);
+		final long startTime1 = System.currentTimeMillis();
+
+		// FIRST PASS
+		FrequentItems freq_items = Apriori.find_freq_items(fileName, threshold_percent, basketsToUse);
+
+		// SECOND PASS
+		int[] passBaskets = new int[1];
+		FpTree tree = build_tree(fileName, freq_items, basketsToUse, passBaskets);
+		double support = passBaskets[0] * ((double)threshold_percent / 100);
+
+		// MINING
+		List<ItemsetTrie> itemsets = mine(tree, freq_items, support, maxItemsetSize);
+		print_itemsets(itemsets, freq_items);
+		long outputTime = ResultSink.finish();
+
+		final long endTime = System.currentTimeMillis();
+		System.out.println("\nSupport: " + (int)support);
+		System.out.println("FP-tree nodes: " + tree.size);
+		System.out.println("Total execution time: " + (endTime - startTime1 - outputTime));
+		System.out.println("Output time: " + outputTime);
+		System.out.println("Baskets in dataset: "+ (int)basketsToUse);
+	}
+
+	// prints pairs, then larger itemsets, in the format of Apriori
+	public static void print_itemsets(List<ItemsetTrie> itemsets, FrequentItems freq_items) throws IOException{
+		ResultSink sink = ResultSink.out();
+		for(ItemsetTrie level : itemsets){
+			if(level.k() == 2)
+				sink.header("\nPAIRS\t\tFREQUENCY");
+			else
+				sink.header("\nITEMSETS OF SIZE " + level.k() + "\tFREQUENCY");
+			sink.itemsets(level, freq_items);
+			if(level.k() == 2)
+				sink.header("Number of frequent pairs: " + level.size());
+			else
+				sink.header("Number of frequent itemsets of size " + level.k() + ": " + level.size());
+		}
+	}
+
+	// SECOND PASS, inserts every basket into an FP-tree, one tree per worker merged at the end
+	public static FpTree build_tree(String fileName, FrequentItems freq_items, double dataSetSize, int[] numBaskets) throws IOException{
+
+		// rank 0 is the most frequent item, ties broken by item order
+		int n = freq_items.size();
+		Integer[] byCount = new Integer[n];
+		for(int idx = 0; idx < n; idx++)
+			byCount[idx] = idx;
+		Arrays.sort(byCount, (a, b) -> freq_items.count(a) != freq_items.count(b) ? Integer.compare(freq_items.count(b), freq_items.count(a)) : Integer.compare(a, b));
+		int[] rankOf = new int[n];
+		int[] indexOf = new int[n];
+		for(int rank = 0; rank < n; rank++){
+			rankOf[byCount[rank]] = rank;
+			indexOf[rank] = byCount[rank];
+		}
+
+		FpTree tree = PassRunner.run(fileName, dataSetSize, () -> new FpTree(n), (local, basket, basket_length) -> {
+			int freq_length = freq_items.filter(basket, basket_length, basket);
+			for(int k = 0; k < freq_length; k++)
+				basket[k] = rankOf[basket[k]];
+			Arrays.sort(basket, 0, freq_length);
+			int path_length = 0;
+			for(int k = 0; k < freq_length; k++)
+				if(k == 0 || basket[k] != basket[k - 1])
+					basket[path_length++] = basket[k];
+			local.insert(basket, path_length, 1);
+		}, FpTree::merge, numBaskets);
+		tree.indexOf = indexOf;
+		return tree;
+	}
+
+	// MINING, every frequent itemset of two or more items grouped by size (list index = size - 2)
+	public static List<ItemsetTrie> mine(FpTree tree, FrequentItems freq_items, double support, int maxItemsetSize){
+		List<ItemsetTrie> levels = new ArrayList<ItemsetTrie>();
+		int[] suffix = new int[tree.numItems + 1];
+
+		mine(tree, suffix, 0, support, maxItemsetSize, (ranks, length, count) -> {
+			if(length < 2)
+				return;
+			while(levels.size() < length - 1)
+				levels.add(new ItemsetTrie(levels.size() + 2));
+			int[] itemset = new int[length];
+			for(int d = 0; d < length; d++)
+				itemset[d] = tree.indexOf[ranks[d]];
+			Arrays.sort(itemset);
+			levels.get(length - 2).put(itemset, count);
+		});
+		for(ItemsetTrie level : levels)
+			level.trim();
+		return levels;
+	}
+
+	private interface ItemsetSink {
+		void accept(int[] ranks, int length, int count);
+	}
+
+	private static void mine(FpTree tree, int[] suffix, int suffixLength, double support, int maxItemsetSize, ItemsetSink sink){
+		// least frequent first, so each conditional tree only holds the more frequent items
+		for(int rank = tree.numItems - 1; rank >= 0; rank--){
+			int count = tree.itemCount[rank];
+			if(count == 0 || (suffixLength > 0 && count < support))
+				continue;
+			suffix[suffixLength] = rank;
+			sink.accept(suffix, suffixLength + 1, count);
+			if(maxItemsetSize != 0 && suffixLength + 1 >= maxItemsetSize)
+				continue;
+
+			FpTree conditional = tree.conditional(rank, support);
+			if(conditional.size > 1)
+				mine(conditional, suffix, suffixLength + 1, support, maxItemsetSize, sink);
+		}
+	}
+
+	// FP-tree over item ranks 0..numItems-1 held in parallel int arrays, node 0 is the root
+	public static class FpTree {
+
+		final int numItems;
+		int[] item;
+		int[] count;
+		int[] parent;
+		int[] firstChild;
+		int[] nextSibling;
+		int[] link;			// next node holding the same item
+		final int[] head;		// first node of each item
+		final int[] itemCount;	// total count of each item in the tree
+		final int[] rootChild;	// children of the root looked up directly by item
+		int size;
+		int[] indexOf;		// rank -> compact index, set on the tree built from the file
+
+		FpTree(int numItems){
+			this.numItems = numItems;
+			int capacity = 1024;
+			item = new int[capacity];
+			count = new int[capacity];
+			parent = new int[capacity];
+			firstChild = new int[capacity];
+			nextSibling = new int[capacity];
+			link = new int[capacity];
+			head = new int[numItems];
+			itemCount = new int[numItems];
+			rootChild = new int[numItems];
+			Arrays.fill(head, -1);
+			Arrays.fill(rootChild, -1);
+			item[0] = -1;
+			parent[0] = -1;
+			firstChild[0] = -1;
+			nextSibling[0] = -1;
+			size = 1;
+		}
+
+		private int child(int node, int rank){
+			if(node == 0)
+				return rootChild[rank];
+			for(int c = firstChild[node]; c >= 0; c = nextSibling[c])
+				if(item[c] == rank)
+					return c;
+			return -1;
+		}
+
+		private int add_child(int node, int rank){
+			if(size == item.length){
+				int capacity = size * 2;
+				item = Arrays.copyOf(item, capacity);
+				count = Arrays.copyOf(count, capacity);
+				parent = Arrays.copyOf(parent, capacity);
+				firstChild = Arrays.copyOf(firstChild, capacity);
+				nextSibling = Arrays.copyOf(nextSibling, capacity);
+				link = Arrays.copyOf(link, capacity);
+			}
+			int c = size++;
+			item[c] = rank;
+			count[c] = 0;
+			parent[c] = node;
+			firstChild[c] = -1;
+			nextSibling[c] = firstChild[node];
+			firstChild[node] = c;
+			link[c] = head[rank];
+			head[rank] = c;
+			if(node == 0)
+				rootChild[rank] = c;
+			return c;
+		}
+
+		// adds a path of ranks in increasing order with the given count
+		void insert(int[] path, int length, int weight){
+			int node = 0;
+			for(int k = 0; k < length; k++){
+				int c = child(node, path[k]);
+				if(c < 0)
+					c = add_child(node, path[k]);
+				count[c] += weight;
+				itemCount[path[k]] += weight;
+				node = c;
+			}
+		}
+
+		// adds the counts of another tree over the same items into this one
+		void merge(FpTree other){
+			merge(other, 0, 0);
+		}
+
+		private void merge(FpTree other, int otherNode, int node){
+			for(int oc = other.firstChild[otherNode]; oc >= 0; oc = other.nextSibling[oc]){
+				int rank = other.item[oc];
+				int c = child(node, rank);
+				if(c < 0)
+					c = add_child(node, rank);
+				count[c] += other.count[oc];
+				itemCount[rank] += other.count[oc];
+				merge(other, oc, c);
+			}
+		}
+
+		// tree of the paths leading to every node of rank, keeping only the items frequent among them
+		FpTree conditional(int rank, double support){
+			int[] baseCount = new int[rank];
+			for(int n = head[rank]; n >= 0; n = link[n])
+				for(int p = parent[n]; p > 0; p = parent[p])
+					baseCount[item[p]] += count[n];
+
+			FpTree conditional = new FpTree(rank);
+			int[] path = new int[rank];
+			for(int n = head[rank]; n >= 0; n = link[n]){
+				int length = 0;
+				for(int p = parent[n]; p > 0; p = parent[p])
+					if(baseCount[item[p]] >= support)
+						path[length++] = item[p];
+				// walked leaf to root, the tree wants most frequent (lowest rank) first
+				for(int a = 0, b = length - 1; a < b; a++, b--){
+					int t = path[a]; path[a] = path[b]; path[b] = t;
+				}
+				conditional.insert(path, length, count[n]);
+			}
+			return conditional;
+		}
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * Frequent Items -- Renumbering Table Built Between the First and Second Pass
+ *
+ * After the first pass the item counts are compared with the support threshold and every frequent
+ * item is given a compact index 0..n-1 (in increasing item id order). The table held in index[]
+ * maps an original item id straight to its compact index, or -1 if it is not frequent, so a
+ * membership check in the pair loops is one array read instead of an ArrayList.contains() scan.
+ * Since the numbering keeps item order, a pair of compact indices has the same order as the items.
+ * Frequent items with ids of PassCounters.DENSE_ITEMS and above are looked up in a HashMap instead,
+ * so one huge id does not make the table huge.
+ */
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+public class FrequentItems {
+
+	private final int[] index;	// item id -> compact index, -1 if not frequent
+	private final HashMap<Integer, Integer> sparseIndex;	// same for the ids past index[], null if none
+	private final int[] items;	// compact index -> item id
+	private final int[] counts;	// compact index -> count from the first pass
+
+	private FrequentItems(int[] index, HashMap<Integer, Integer> sparseIndex, int[] items, int[] counts){
+		this.index = index;
+		this.sparseIndex = sparseIndex;
+		this.items = items;
+		this.counts = counts;
+	}
+
+	// items whose count is greater than the support threshold are frequent
+	public static FrequentItems from_counts(HashMap<Integer, Integer> itemCount, double support){
+		return from_counts(new int[0], itemCount, support);
+	}
+
+	// same as from_counts, for counts held in an int[] indexed by item id
+	public static FrequentItems from_counts(int[] itemCount, double support){
+		return from_counts(itemCount, null, support);
+	}
+
+	// same as from_counts, for the item counts of a pass
+	public static FrequentItems from_counts(PassCounters counters, double support){
+		return from_counts(counters.items(), counters.sparse_items(), support);
+	}
+
+	// counts in an int[] indexed by item id, and in a map (may be null) for ids past the end of the array
+	private static FrequentItems from_counts(int[] dense, Map<Integer, Integer> sparse, double support){
+		int n = 0;
+		for(int item = 0; item < dense.length; item++)
+			if(dense[item] > support)
+				n++;
+		int[] large = new int[(sparse == null) ? 0 : sparse.size()];
+		int numLarge = 0;
+		if(sparse != null)
+			for(Entry<Integer, Integer> entry : sparse.entrySet())
+				if(entry.getValue() > support)
+					large[numLarge++] = entry.getKey();
+		Arrays.sort(large, 0, numLarge);
+
+		int[] items = new int[n + numLarge];
+		int[] counts = new int[n + numLarge];
+		int next = 0;
+		for(int item = 0; item < dense.length; item++){
+			if(dense[item] > support){
+				items[next] = item;
+				counts[next++] = dense[item];
+			}
+		}
+		for(int k = 0; k < numLarge; k++){
+			items[next] = large[k];
+			counts[next++] = sparse.get(large[k]);
+		}
+		return of(items, counts);
+	}
+
+	// the table of the given items, in increasing item id order, with their counts
+	private static FrequentItems of(int[] items, int[] counts){
+		int dense = 0;
+		while(dense < items.length && items[dense] < PassCounters.DENSE_ITEMS)
+			dense++;
+		int[] index = new int[(dense == 0) ? 0 : items[dense - 1] + 1];
+		Arrays.fill(index, -1);
+		for(int idx = 0; idx < dense; idx++)
+			index[items[idx]] = idx;
+		HashMap<Integer, Integer> sparseIndex = (dense == items.length) ? null : new HashMap<Integer, Integer>();
+		for(int idx = dense; idx < items.length; idx++)
+			sparseIndex.put(items[idx], idx);
+		return new FrequentItems(index, sparseIndex, items, counts);
+	}
+
+	// the items whose count times scale is greater than the support threshold, with their scaled counts
+	// rounded, e.g. the estimates for a whole data set from the counts of a sample of it
+	public FrequentItems scaled(double scale, double support){
+		int n = 0;
+		for(int idx = 0; idx < items.length; idx++)
+			if(counts[idx] * scale > support)
+				n++;
+		int[] scaledItems = new int[n];
+		int[] scaledCounts = new int[n];
+		int next = 0;
+		for(int idx = 0; idx < items.length; idx++){
+			if(counts[idx] * scale > support){
+				scaledItems[next] = items[idx];
+				scaledCounts[next++] = (int)Math.round(counts[idx] * scale);
+			}
+		}
+		return of(scaledItems, scaledCounts);
+	}
+
+	// compact index of an item, -1 if the item is not frequent
+	public int index(int item){
+		if(item >= 0 && item < index.length)
+			return index[item];
+		return (sparseIndex == null) ? -1 : sparseIndex.getOrDefault(item, -1);
+	}
+
+	public boolean contains(int item){
+		return index(item) >= 0;
+	}
+
+	public int item(int idx){
+		return items[idx];
+	}
+
+	public int count(int idx){
+		return counts[idx];
+	}
+
+	public int size(){
+		return items.length;
+	}
+
+	// keeps only the frequent items of a basket, written to out as compact indices (out may be basket),
+	// in increasing order and each once, so an item listed twice never makes a pair with itself
+	public int filter(int[] basket, int basket_length, int[] out){
+		int n = 0;
+		for(int k = 0; k < basket_length; k++){
+			int idx = index(basket[k]);
+			if(idx >= 0)
+				out[n++] = idx;
+		}
+		return BasketReader.distinct(out, n);
+	}
+
+	// pair counter for the frequent items, triangular when the full matrix is small enough, off the heap with miner.offheap
+	public PairCounter new_pair_counter(){
+		if(PairCounter.triangle_size(size()) <= PairCounter.TRIANGULAR_LIMIT)
+			return PairCounter.triangular(size());
+		if(OffHeapArray.ENABLED)
+			return PairCounter.off_heap(size() * 4);
+		return PairCounter.hashed(size() * 4);
+	}
+}
@@ -0,0 +1,245 @@
+/*
+ * Itemset Trie -- Candidate k-Itemsets for the Level-Wise A-Priori Passes
+ *
+ * Holds a set of k-itemsets over compact item indices (see FrequentItems) as a prefix trie. Each
+ * node keeps its child items sorted, and every itemset ends in a leaf numbered 0..size()-1, so the
+ * counts of a pass live in a plain int[] (one per worker thread, see PassCounters) and the trie
+ * itself is read-only while counting.
+ *
+ * COUNTING:    A sorted basket is walked down the trie with a merge of the basket and the child
+ * 				items at each level, so only the subsets that are actually candidates get visited
+ * 				instead of every k-subset of the basket.
+ * CANDIDATES:  Two frequent (k-1)-itemsets that share their first k-2 items are joined into a
+ * 				k-itemset, which is kept only if all of its (k-1)-subsets are frequent.
+ */
+
+import java.util.Arrays;
+
+public class ItemsetTrie {
+
+	// callback used to walk the itemsets in lexicographic order
+	public interface ItemsetConsumer {
+		void accept(int[] itemset, int count);
+	}
+
+	private static final class Node {
+		int[] items = new int[2];
+		int n;
+		Node[] children;	// inner levels
+		int[] leaves;		// last level, leaf number of each itemset
+
+		// position of item, or -(insertion point) - 1
+		int find(int item){
+			return Arrays.binarySearch(items, 0, n, item);
+		}
+	}
+
+	private final int k;
+	private final Node root = new Node();
+	private int size;
+	private int[] counts;	// counts of the frequent itemsets, once known
+
+	public ItemsetTrie(int k){
+		if(k < 1)
+			throw new IllegalArgumentException("Itemset size must be at least 1: " + k);
+		this.k = k;
+	}
+
+	// frequent pairs of a pair counter, as (smaller, larger) compact indices
+	public static ItemsetTrie from_pairs(PairCounter pairs){
+		ItemsetTrie trie = new ItemsetTrie(2);
+		int[] pair = new int[2];
+		pairs.forEach((i, j, count) -> {
+			pair[0] = Math.min(i, j);
+			pair[1] = Math.max(i, j);
+			trie.put(pair, count);
+		});
+		trie.trim();
+		return trie;
+	}
+
+	public int k(){
+		return k;
+	}
+
+	public int size(){
+		return size;
+	}
+
+	// adds a sorted itemset, returns its leaf number or -1 if it was already there
+	public int add(int[] itemset){
+		Node node = root;
+		for(int d = 0; d < k; d++){
+			int pos = node.find(itemset[d]);
+			if(pos < 0){
+				pos = -pos - 1;
+				if(node.n == node.items.length){
+					node.items = Arrays.copyOf(node.items, node.n * 2);
+					if(d < k - 1)
+						node.children = Arrays.copyOf(node.children == null ? new Node[0] : node.children, node.n * 2);
+					else
+						node.leaves = Arrays.copyOf(node.leaves == null ? new int[0] : node.leaves, node.n * 2);
+				}
+				if(d < k - 1 && node.children == null)
+					node.children = new Node[node.items.length];
+				if(d == k - 1 && node.leaves == null)
+					node.leaves = new int[node.items.length];
+				System.arraycopy(node.items, pos, node.items, pos + 1, node.n - pos);
+				node.items[pos] = itemset[d];
+				if(d < k - 1){
+					System.arraycopy(node.children, pos, node.children, pos + 1, node.n - pos);
+					node.children[pos] = new Node();
+				}
+				else {
+					System.arraycopy(node.leaves, pos, node.leaves, pos + 1, node.n - pos);
+					node.leaves[pos] = size;
+				}
+				node.n++;
+				if(d == k - 1)
+					return size++;
+			}
+			else if(d == k - 1){
+				return -1;
+			}
+			node = node.children[pos];
+		}
+		return -1;
+	}
+
+	// true if the sorted itemset, leaving out position skip, is in the trie (skip -1 leaves out nothing)
+	public boolean contains(int[] itemset, int skip){
+		Node node = root;
+		int d = 0;
+		for(int p = 0; p < itemset.length; p++){
+			if(p == skip)
+				continue;
+			int pos = node.find(itemset[p]);
+			if(pos < 0)
+				return false;
+			if(++d == k)
+				return true;
+			node = node.children[pos];
+		}
+		return false;
+	}
+
+	// count of the sorted itemset[0..k-1] as held by this trie, 0 if it is not here
+	public int get(int[] itemset){
+		Node node = root;
+		for(int d = 0; d < k; d++){
+			int pos = node.find(itemset[d]);
+			if(pos < 0)
+				return 0;
+			if(d == k - 1)
+				return (counts == null) ? 0 : counts[node.leaves[pos]];
+			node = node.children[pos];
+		}
+		return 0;
+	}
+
+	// adds 1 to counts[leaf] of every itemset contained in the sorted basket[0..length-1]
+	public void count(int[] basket, int length, int[] counts){
+		if(length >= k && size > 0)
+			count(root, 0, basket, 0, length, counts);
+	}
+
+	private void count(Node node, int depth, int[] basket, int start, int length, int[] counts){
+		int last = length - (k - depth);	// later basket positions leave too few items to finish the itemset
+		int c = 0;
+		for(int p = start; p <= last && c < node.n; p++){
+			int item = basket[p];
+			while(c < node.n && node.items[c] < item)
+				c++;
+			if(c == node.n)
+				return;
+			if(node.items[c] != item)
+				continue;
+			if(depth == k - 1)
+				counts[node.leaves[c]]++;
+			else
+				count(node.children[c], depth + 1, basket, p + 1, length, counts);
+			c++;
+		}
+	}
+
+	// the itemsets whose count reaches the support threshold, with their counts kept
+	public ItemsetTrie frequent(int[] counts, double support){
+		ItemsetTrie result = new ItemsetTrie(k);
+		forEach(counts, (itemset, count) -> {
+			if(count >= support)
+				result.put(itemset, count);
+		});
+		result.trim();
+		return result;
+	}
+
+	// adds a sorted itemset together with its count
+	public void put(int[] itemset, int count){
+		int leaf = add(itemset);
+		if(leaf < 0)
+			return;
+		if(counts == null || leaf >= counts.length)
+			counts = Arrays.copyOf(counts == null ? new int[0] : counts, leaf * 2 + 16);
+		counts[leaf] = count;
+	}
+
+	// drops the unused tail of the counts array
+	public void trim(){
+		counts = Arrays.copyOf(counts == null ? new int[0] : counts, size);
+	}
+
+	// candidate (k+1)-itemsets: joins of itemsets sharing their first k-1 items whose k-subsets are all here
+	public ItemsetTrie candidates(){
+		ItemsetTrie next = new ItemsetTrie(k + 1);
+		int[] prefix = new int[k + 1];
+		join(root, 0, prefix, next);
+		return next;
+	}
+
+	private void join(Node node, int depth, int[] candidate, ItemsetTrie next){
+		if(depth == k - 1){
+			// every pair of siblings a < b gives prefix + a + b
+			for(int a = 0; a < node.n; a++){
+				candidate[k - 1] = node.items[a];
+				for(int b = a + 1; b < node.n; b++){
+					candidate[k] = node.items[b];
+					if(all_subsets_frequent(candidate))
+						next.add(candidate);
+				}
+			}
+			return;
+		}
+		for(int c = 0; c < node.n; c++){
+			candidate[depth] = node.items[c];
+			join(node.children[c], depth + 1, candidate, next);
+		}
+	}
+
+	// the two subsets leaving out one of the last two items are the joined itemsets themselves
+	private boolean all_subsets_frequent(int[] candidate){
+		for(int skip = 0; skip < k - 1; skip++)
+			if(!contains(candidate, skip))
+				return false;
+		return true;
+	}
+
+	// walks the itemsets in lexicographic order with the counts held by this trie
+	public void forEach(ItemsetConsumer consumer){
+		forEach(counts, consumer);
+	}
+
+	// walks the itemsets in lexicographic order with counts[leaf] as the count
+	public void forEach(int[] counts, ItemsetConsumer consumer){
+		walk(root, 0, new int[k], counts, consumer);
+	}
+
+	private void walk(Node node, int depth, int[] itemset, int[] counts, ItemsetConsumer consumer){
+		for(int c = 0; c < node.n; c++){
+			itemset[depth] = node.items[c];
+			if(depth == k - 1)
+				consumer.accept(itemset, counts == null ? 0 : counts[node.leaves[c]]);
+			else
+				walk(node.children[c], depth + 1, itemset, counts, consumer);
+		}
+	}
+}
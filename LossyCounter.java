@@ -0,0 +1,150 @@
+/*
+ * Lossy Counter -- Approximate Counts Over a Stream in Bounded Memory
+ *
+ * Lossy counting (Manku and Motwani): the stream is cut into buckets of w = ceil(1 / error) baskets.
+ * A key is counted from the first time it shows up, with delta = (current bucket - 1) recording how
+ * many occurrences it may have had before. At the end of every bucket the entries with
+ * count + delta <= current bucket are dropped. A dropped key occurred at most error * N times, so
+ * every key seen more than error * N times is still held, count never exceeds the true count, and
+ * count + delta never falls below it. At most (1 / error) * log(error * N) entries are ever held.
+ *
+ * Keys are longs (an item id, or a pair packed with PairCounter.pack) in an open addressing table
+ * with linear probing, a slot is empty when its count is 0. Dropping entries rebuilds the table, so
+ * slot numbers are only valid until the next prune() or halve().
+ */
+
+public class LossyCounter {
+
+	// callback used to walk the held entries by slot
+	public interface SlotConsumer {
+		void accept(int slot);
+	}
+
+	private long[] keys;
+	private int[] counts;
+	private int[] deltas;
+	private boolean[] reported;
+	private int mask;
+	private int size;
+
+	public LossyCounter(){
+		allocate(1024);
+	}
+
+	private void allocate(int capacity){
+		keys = new long[capacity];
+		counts = new int[capacity];
+		deltas = new int[capacity];
+		reported = new boolean[capacity];
+		mask = capacity - 1;
+		size = 0;
+	}
+
+	// murmur3 64-bit finalizer, spreads keys over the table
+	private static int slot_hash(long key){
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int)key;
+	}
+
+	// adds one occurrence of key during bucket, returns its slot
+	public int add(long key, int bucket){
+		int slot = slot_hash(key) & mask;
+		while(counts[slot] != 0){
+			if(keys[slot] == key){
+				counts[slot]++;
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key;
+		counts[slot] = 1;
+		deltas[slot] = bucket - 1;
+		reported[slot] = false;
+		if(++size * 2 > keys.length){
+			rebuild(keys.length * 2, 0, 0);
+			return find(key);
+		}
+		return slot;
+	}
+
+	private int find(long key){
+		int slot = slot_hash(key) & mask;
+		while(keys[slot] != key || counts[slot] == 0)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	public long key(int slot){
+		return keys[slot];
+	}
+
+	public int count(int slot){
+		return counts[slot];
+	}
+
+	// count + delta, the most the key can have occurred
+	public int upper_bound(int slot){
+		return counts[slot] + deltas[slot];
+	}
+
+	public boolean reported(int slot){
+		return reported[slot];
+	}
+
+	public void set_reported(int slot, boolean value){
+		reported[slot] = value;
+	}
+
+	public int size(){
+		return size;
+	}
+
+	public long bytes(){
+		return 17L * keys.length;
+	}
+
+	// end of bucket: drops every entry with count + delta <= bucket
+	public void prune(int bucket){
+		int capacity = keys.length;
+		while(capacity > 1024 && size * 8 < capacity)
+			capacity >>= 1;
+		rebuild(capacity, bucket, 0);
+	}
+
+	// halves every count and delta, for a decaying window (entries left with count 0 are dropped)
+	public void halve(){
+		rebuild(keys.length, 0, 1);
+	}
+
+	private void rebuild(int capacity, int bucket, int shift){
+		long[] oldKeys = keys;
+		int[] oldCounts = counts;
+		int[] oldDeltas = deltas;
+		boolean[] oldReported = reported;
+		allocate(capacity);
+		for(int s = 0; s < oldKeys.length; s++){
+			int count = oldCounts[s] >> shift;
+			int delta = oldDeltas[s] >> shift;
+			if(count == 0 || count + delta <= bucket)
+				continue;
+			int slot = slot_hash(oldKeys[s]) & mask;
+			while(counts[slot] != 0)
+				slot = (slot + 1) & mask;
+			keys[slot] = oldKeys[s];
+			counts[slot] = count;
+			deltas[slot] = delta;
+			reported[slot] = oldReported[s];
+			size++;
+		}
+	}
+
+	public void forEach(SlotConsumer consumer){
+		for(int s = 0; s < keys.length; s++)
+			if(counts[s] != 0)
+				consumer.accept(s);
+	}
+}
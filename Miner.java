@@ -0,0 +1,723 @@
+/*
+ * Miner -- One Engine for A-Priori, PCY, Multihash and Multistage
+ *
+ * The four algorithms only differ in which bucket filters a pair of frequent items has to pass
+ * before it is counted, so they all run through the same passes with a Strategy choosing the
+ * filters:
+ *
+ * apriori:         no filter, every pair of frequent items is counted.
+ * pcy:             one table, hashed in the first pass.
+ * multihash[-N]:   N tables (default miner.tables) hashed in the first pass, each with 1/N of the
+ * 				buckets.
+ * multistage[-N]:  N tables (default 2) of all the buckets, one per pass. A pair is hashed into a
+ * 				table only if it passed the bitmaps of every table before it.
+ * multistage-auto: multistage adding one table at a time, up to miner.stages (default 4) tables,
+ * 				until the candidates are expected to fit (see ADAPTIVE).
+ * auto:            the first pass of pcy, then the rest is chosen from what it found (see AUTO).
+ *
+ * FIRST PASS:  Count every item and hash every pair into the tables of the first pass.
+ * STAGES:      (multistage) Pairs of frequent items passing every bitmap so far are hashed into the
+ * 				next table, each table with its own hash function (see PairHash).
+ * LAST PASS:   Pairs of frequent items passing every bitmap are counted, and kept if they reach the
+ * 				support threshold.
+ * k-th PASS:   (with a max itemset size above 2, or 0 for no limit) Larger itemsets as in A-Priori,
+ * 				candidates from the frequent (k-1)-itemsets counted through an ItemsetTrie.
+ *
+ * AUTO:        After the first pass the cost of the pair counter is estimated from the frequent items
+ * 				and the fraction of frequent buckets, against half the heap still free:
+ * 				- the triangular matrix fits (PairCounter.TRIANGULAR_LIMIT): apriori, the bucket check
+ * 				  would cost a hash per pair and save no memory.
+ * 				- the candidates left by the bitmap fit a hashed counter: pcy, no further scan.
+ * 				- they do not, or the table was saturated: multistage-2, with the second table sized
+ * 				  from the heap, as its extra scan is cheaper than running out of memory.
+ * 				Multihash is never picked, its tables would have to be hashed before the figures exist.
+ * 				The choice and the reason are printed and recorded in the metrics.
+ * ADAPTIVE:    After each table of multistage-auto the pair occurrences it eliminated are printed,
+ * 				with the distinct candidate pairs estimated to be left (the estimate before it times
+ * 				the fraction of frequent buckets, starting from every pair of frequent items). Each new
+ * 				table is sized from the pairs left, as in AUTO (stage_buckets). No more tables are
+ * 				added once the triangular matrix fits, the estimate fits a hashed counter in a quarter
+ * 				of the free heap, or the last stage eliminated under MIN_ELIMINATED of the occurrences
+ * 				it saw, as another would not pay for its scan either.
+ *
+ * With miner.offheap the bucket tables are OffHeapArrays shared by the workers (atomic adds when
+ * there are several), and the hashed pair counters live off the heap too (PairCounter.off_heap).
+ * With miner.cache the first pass also keeps the baskets, cut down to their frequent items once
+ * those are known, and every later pass reads them from memory instead of the file while they fit
+ * (see BasketCache).
+ *
+ * Every pass goes through PassRunner (text or binary basket file, miner.threads workers), and the
+ * Result is written through ResultSink in the format of Pcy, followed by its AssociationRules when
+ * miner.rules is set. The main methods of Apriori, Pcy, Multihash and Multistage are shortcuts to
+ * this class. The same passes also run over the lines after a checkpoint (Multistage.remine) and
+ * over the partitions of Son held in memory (mine_partition).
+ *
+ * Usage:       $ java Miner retail.txt 1 100 multistage-3
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Supplier;
+
+public class Miner {
+
+	private static final long HASHED_BYTES_PER_PAIR = 24;	// long key and int count of PairCounter at half load
+	private static final double SATURATED = 0.5;			// above this fraction of frequent buckets the table barely filters
+	private static final long MAX_STAGE_BUCKETS = 1 << 22;		// 16 MB of counts, larger tables lose more to cache misses than they filter
+	private static final double MIN_ELIMINATED = 0.1;		// a stage removing fewer of its pair occurrences ends multistage-auto
+
+	// which bucket filters run before the pairs are counted
+	public static final class Strategy {
+		public final String name;
+		public final int firstPassTables;	// tables hashed in the first pass
+		public final int tables;			// tables in all, the rest get one pass each
+		public final int[] buckets;			// buckets of each table
+		public final boolean auto;			// the tables after the first pass are still to be chosen
+		public final boolean adaptive;		// tables are only added while they are needed
+
+		private Strategy(String name, int firstPassTables, int[] buckets, boolean auto){
+			this(name, firstPassTables, buckets, auto, false);
+		}
+
+		private Strategy(String name, int firstPassTables, int[] buckets, boolean auto, boolean adaptive){
+			if(buckets.length < firstPassTables || firstPassTables < 0)
+				throw new IllegalArgumentException("Bad table count for " + name + ": " + buckets.length);
+			this.name = name;
+			this.firstPassTables = firstPassTables;
+			this.tables = buckets.length;
+			this.buckets = buckets;
+			this.auto = auto;
+			this.adaptive = adaptive;
+		}
+
+		private static int[] tables(int tables, int numBuckets){
+			int[] buckets = new int[Math.max(0, tables)];
+			Arrays.fill(buckets, numBuckets);
+			return buckets;
+		}
+
+		public static Strategy apriori(){
+			return new Strategy("apriori", 0, new int[0], false);
+		}
+
+		public static Strategy pcy(){
+			return new Strategy("pcy", 1, tables(1, BucketBitmap.num_buckets()), false);
+		}
+
+		public static Strategy multihash(int tables){
+			return new Strategy("multihash-" + tables, tables, tables(tables, Math.max(1, BucketBitmap.num_buckets() / Math.max(1, tables))), false);
+		}
+
+		public static Strategy multistage(int tables){
+			return new Strategy("multistage-" + tables, 1, tables(tables, BucketBitmap.num_buckets()), false);
+		}
+
+		// multistage with at most maxTables tables, see ADAPTIVE
+		public static Strategy adaptive(int maxTables){
+			if(maxTables < 1)
+				throw new IllegalArgumentException("Table count must be at least 1: " + maxTables);
+			return new Strategy("multistage-auto", 1, tables(maxTables, BucketBitmap.num_buckets()), false, true);
+		}
+
+		// the first n tables of an adaptive strategy, the ones that were built
+		private Strategy stopped_at(int n){
+			return new Strategy(name + ":" + n, firstPassTables, Arrays.copyOf(buckets, n), false, true);
+		}
+
+		// the same with numBuckets buckets in table t
+		private Strategy resized(int t, int numBuckets){
+			int[] sizes = buckets.clone();
+			sizes[t] = numBuckets;
+			return new Strategy(name, firstPassTables, sizes, auto, adaptive);
+		}
+
+		// the first pass of pcy, the rest chosen by choose()
+		public static Strategy auto(){
+			return new Strategy("auto", 1, tables(1, BucketBitmap.num_buckets()), true);
+		}
+
+		// apriori, pcy, multihash, multihash-N, multistage, multistage-N, multistage-auto or auto
+		public static Strategy parse(String spec){
+			if(spec.equals("multistage-auto"))
+				return adaptive(Integer.getInteger("miner.stages", 4));
+			int dash = spec.lastIndexOf('-');
+			String base = (dash < 0) ? spec : spec.substring(0, dash);
+			int n;
+			try {
+				n = (dash < 0) ? -1 : Integer.parseInt(spec.substring(dash + 1));
+			}
+			catch(NumberFormatException e){
+				throw new IllegalArgumentException("Unknown algorithm: " + spec + " (apriori, pcy, multihash[-N], multistage[-N|-auto] or auto)");
+			}
+			if(dash >= 0 && n < 1)
+				throw new IllegalArgumentException("Table count must be at least 1: " + spec);
+			switch(base){
+			case "apriori":
+				if(dash < 0)
+					return apriori();
+				break;
+			case "pcy":
+				if(dash < 0)
+					return pcy();
+				break;
+			case "multihash":
+				return multihash((dash < 0) ? Integer.getInteger("miner.tables", 2) : n);
+			case "multistage":
+				return multistage((dash < 0) ? 2 : n);
+			case "auto":
+				if(dash < 0)
+					return auto();
+				break;
+			}
+			throw new IllegalArgumentException("Unknown algorithm: " + spec + " (apriori, pcy, multihash[-N], multistage[-N|-auto] or auto)");
+		}
+
+		// independent hash functions, one per table (see PairHash), the t-th the same whatever the sizes
+		public PairHash[] hashes(){
+			PairHash[] hashes = new PairHash[tables];
+			for(int t = 0; t < tables; t++)
+				hashes[t] = PairHash.family(tables, buckets[t])[t];
+			return hashes;
+		}
+	}
+
+	// what a run found, items and itemsets as compact indices of items
+	public static final class Result {
+		public final Strategy strategy;
+		public final double support;
+		public final double baskets;			// baskets mined, the dataset size
+		public final int[] itemCounts;			// first pass counts, indexed by item id
+		public final HashMap<Integer, Integer> sparseItemCounts;	// and of the ids of PassCounters.DENSE_ITEMS and above, or null
+		private final int[][] firstPassTables;			// first pass bucket counts, on the heap
+		private final OffHeapArray[] offHeapTables;	// or off it
+		public final FrequentItems items;
+		public final PairCounter pairs;			// every pair at or above support
+		public final List<ItemsetTrie> itemsets = new ArrayList<ItemsetTrie>();	// sizes 3, 4, ...
+		public final List<Integer> candidateItemsets = new ArrayList<Integer>();
+
+		Result(Strategy strategy, double support, double baskets, PassCounters firstPass, OffHeapArray[] offHeapTables, FrequentItems items, PairCounter pairs){
+			this.strategy = strategy;
+			this.support = support;
+			this.baskets = baskets;
+			this.itemCounts = firstPass.items();
+			this.sparseItemCounts = firstPass.sparse_items();
+			this.firstPassTables = firstPass.buckets;
+			this.offHeapTables = offHeapTables;
+			this.items = items;
+			this.pairs = pairs;
+		}
+
+		// first pass bucket counts of table t, copied onto the heap when they were kept off it
+		public int[] first_pass_table(int t){
+			return (offHeapTables == null) ? firstPassTables[t] : offHeapTables[t].to_ints();
+		}
+
+		// gives what the result holds off the heap back to the budget of miner.offheap, once it is no longer read
+		public void release(){
+			Miner.release(offHeapTables);
+			pairs.release();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		if(args.length < 3 || args.length > 5){
+			System.out.println("Usage of Miner:\t<file> <support threshold %> <dataset size %> [apriori|pcy|multihash[-N]|multistage[-N|-auto]|auto, default pcy] [max itemset size, default 2, 0 = no limit]\nex.\t\t$ retail.txt 1 100 multistage-3");
+			return;
+		}
+
+		Strategy strategy;
+		try {
+			strategy = Strategy.parse((args.length >= 4) ? args[3] : "pcy");
+		}
+		catch(IllegalArgumentException e){
+			System.out.println(e.getMessage());
+			return;
+		}
+		int maxItemsetSize = (args.length == 5) ? Integer.parseInt(args[4]) : 2;
+		run(args[0], Integer.parseInt(args[1]), Integer.parseInt(args[2]), strategy, maxItemsetSize).release();
+	}
+
+	// a whole run as the main methods do it: mining, results, timings and metrics
+	public static Result run(String fileName, int threshold_percent, int dataSetPercentage, Strategy strategy, int maxItemsetSize) throws IOException{
+		int numBaskets = BasketReader.count_baskets(fileName);
+
+		double basketsToUse = numBaskets * ((double)dataSetPercentage / 100);
+		double support = basketsToUse * ((double)threshold_percent / 100);
+
+		final long startTime1 = System.currentTimeMillis();
+
+		Result result = mine(fileName, basketsToUse, support, strategy, maxItemsetSize);
+		print(result);
+		if(AssociationRules.ENABLED){
+			AssociationRules rules = AssociationRules.from_properties(result);
+			ResultSink sink = ResultSink.out();
+			sink.header("\nRULES\t\tCOUNT\tCONFIDENCE\tLIFT\tINTEREST");
+			sink.rules(rules, result.items);
+			sink.header("Number of rules: " + rules.size());
+		}
+		long outputTime = ResultSink.finish();
+
+		final long endTime = System.currentTimeMillis();
+		System.out.println("\nSupport: " + (int)support);
+		System.out.println("Total execution time: " + (endTime - startTime1 - outputTime));
+		System.out.println("Output time: " + outputTime);
+		System.out.println("Baskets in dataset: "+ (int)basketsToUse);
+		PassMetrics.write(result.strategy.name, fileName, support, basketsToUse);
+		return result;
+	}
+
+	public static Result mine(String fileName, double dataSetSize, double support, Strategy strategy, int maxItemsetSize) throws IOException{
+		PairHash[] hashes = strategy.hashes();
+		BucketBitmap[] bitVectors = new BucketBitmap[strategy.tables];
+
+		// FIRST PASS
+		PassMetrics.begin(strategy.firstPassTables == 0 ? "item_counting" : "bucket_hashing");
+		int[] sizes = Arrays.copyOf(strategy.buckets, strategy.firstPassTables);
+		OffHeapArray[] firstTables = off_heap_tables(sizes);
+		BasketCache cache = BasketCache.from_properties();
+		PassCounters firstPass = first_pass(fileName, 0, Long.MAX_VALUE, dataSetSize, sizes, firstTables, hashes, cache);
+		for(int t = 0; t < strategy.firstPassTables; t++)
+			bitVectors[t] = bit_vector(firstPass, firstTables, t, support);
+		if(strategy.firstPassTables > 0 && firstTables == null)
+			PassMetrics.tables(firstPass.buckets, bitVectors);
+		else if(strategy.firstPassTables > 0)
+			PassMetrics.tables(firstTables, bitVectors);
+
+		// list of frequent items, renumbered for the later passes
+		FrequentItems freq_items = FrequentItems.from_counts(firstPass, support);
+		if(cache != null)
+			cache.filter(freq_items, firstPass.numBaskets);
+
+		// AUTO, the first table is kept as the first of the chosen strategy
+		if(strategy.auto){
+			long[] fill = fill(firstPass, firstTables, 0, bitVectors[0]);
+			strategy = choose(freq_items, fill[0], fill[1], sizes[0], bitVectors[0], support, heap_budget());
+			hashes = strategy.hashes();
+			bitVectors = Arrays.copyOf(bitVectors, strategy.tables);
+		}
+		// ADAPTIVE, candidates left after the first table
+		long matrix = PairCounter.triangle_size(freq_items.size());
+		long[] lastFill = null;
+		long estimate = matrix;
+		if(strategy.adaptive){
+			lastFill = fill(firstPass, firstTables, 0, bitVectors[0]);
+			estimate = report_stage(1, lastFill, bitVectors[0], estimate);
+		}
+		PassMetrics.end();
+		Strategy chosen = strategy;
+		PairHash[] passHashes = hashes;
+
+		// STAGES
+		for(int t = chosen.firstPassTables; t < chosen.tables; t++){
+			if(chosen.adaptive && enough_tables(t, matrix, estimate, lastFill)){
+				chosen = chosen.stopped_at(t);
+				break;
+			}
+			if(chosen.adaptive){
+				chosen = chosen.resized(t, stage_buckets(lastFill[2], support, chosen.buckets[t], heap_budget()));
+				passHashes = chosen.hashes();
+			}
+			PassMetrics.begin("stage_" + (t + 1));
+			lastFill = stage_pass(fileName, 0, Long.MAX_VALUE, dataSetSize, freq_items, cache, chosen.buckets[t], passHashes, bitVectors, t, support);
+			if(chosen.adaptive)
+				estimate = report_stage(t + 1, lastFill, bitVectors[t], estimate);
+			PassMetrics.end();
+		}
+		if(chosen.adaptive && chosen.tables == strategy.tables)
+			chosen = chosen.stopped_at(chosen.tables);
+
+		// LAST PASS, with the tables that were built
+		PassMetrics.begin("pair_counting");
+		BucketBitmap[] lastBitVectors = Arrays.copyOf(bitVectors, chosen.tables);
+		PairHash[] lastHashes = passHashes;
+		PassCounters lastPass = frequent_pass(fileName, 0, Long.MAX_VALUE, dataSetSize, freq_items, cache, PassCounters.pairs(freq_items::new_pair_counter), (local, basket, freq_length) -> count_pairs(local, freq_items, lastHashes, lastBitVectors, basket, freq_length));
+		if(chosen.tables == 0)
+			PassMetrics.funnel(lastPass, "pairs_in_baskets", "candidates");
+		else
+			PassMetrics.funnel(lastPass, "pairs_in_baskets", "pairs_of_frequent_items", "passed_bitvector1", "candidates");
+		PairCounter pairs = lastPass.pairs;
+		pairs.removeBelow(support);
+		PassMetrics.put("frequent_pairs", pairs.size());
+		PassMetrics.end();
+
+		Result result = new Result(chosen, support, dataSetSize, firstPass, firstTables, freq_items, pairs);
+
+		// k-th PASS, larger itemsets until none of them are frequent
+		ItemsetTrie frequent = ItemsetTrie.from_pairs(pairs);
+		for(int k = 3; (maxItemsetSize == 0 || k <= maxItemsetSize) && frequent.size() > 0; k++){
+			PassMetrics.begin("itemsets_" + k);
+			ItemsetTrie candidates = frequent.candidates();
+			frequent = count_itemsets(fileName, freq_items, cache, candidates, support, dataSetSize);
+			result.itemsets.add(frequent);
+			result.candidateItemsets.add(candidates.size());
+			PassMetrics.put("candidate_itemsets", candidates.size());
+			PassMetrics.put("frequent_itemsets", frequent.size());
+			PassMetrics.end();
+		}
+		return result;
+	}
+
+	// FIRST PASS over the lines [start, end) of the file (0 and Long.MAX_VALUE for all of it), counts the
+	// items and hashes every pair into the tables of the given sizes: offHeap (see off_heap_tables), or
+	// the bucket tables of the counters when it is null. Fills the cache on the way when there is one.
+	static PassCounters first_pass(String fileName, long start, long end, double dataSetSize, int[] sizes, OffHeapArray[] offHeap, PairHash[] hashes, BasketCache cache) throws IOException{
+		boolean shared = PassRunner.threads() > 1;
+		Supplier<PassCounters> newCounters = PassCounters.items_and_buckets((offHeap == null) ? sizes : new int[0]);
+		int[] numBaskets = new int[1];
+		PassCounters counters = PassRunner.run(fileName, start, end, dataSetSize, (cache == null) ? newCounters : cache.with_parts(newCounters), (local, basket, basket_length) -> {
+			if(local.cached != null)
+				cache.add(local.cached, basket, basket_length, basket_length);
+			hash_basket(local, offHeap, shared, hashes, basket, basket_length);
+		}, PassCounters::merge, numBaskets);
+		counters.numBaskets = numBaskets[0];
+		return counters;
+	}
+
+	// STAGE over the lines [start, end), hashes the pairs of frequent items passing bitVectors[0..t-1]
+	// into a table of numBuckets, sets bitVectors[t] from it and returns its fill (see fill)
+	static long[] stage_pass(String fileName, long start, long end, double dataSetSize, FrequentItems freq_items, BasketCache cache, int numBuckets, PairHash[] hashes, BucketBitmap[] bitVectors, int t, double support) throws IOException{
+		boolean shared = PassRunner.threads() > 1;
+		OffHeapArray[] stageTables = off_heap_tables(numBuckets);
+		OffHeapArray stageTable = (stageTables == null) ? null : stageTables[0];
+		PassCounters stage = frequent_pass(fileName, start, end, dataSetSize, freq_items, cache, PassCounters.buckets((stageTable == null) ? numBuckets : 0), (local, basket, freq_length) -> hash_stage(local, stageTable, shared, freq_items, hashes, bitVectors, t, basket, freq_length));
+		bitVectors[t] = bit_vector(stage, stageTables, 0, support);
+		PassMetrics.funnel(stage, "pairs_in_baskets", "pairs_of_frequent_items", "passed_bitvector1", "passed_all_bitvectors");
+		long[] fill = fill(stage, stageTables, 0, bitVectors[t]);
+		if(stageTable == null){
+			PassMetrics.tables(stage.buckets, new BucketBitmap[]{ bitVectors[t] });
+		}
+		else {
+			PassMetrics.tables(stageTables, new BucketBitmap[]{ bitVectors[t] });
+			stageTable.release();
+		}
+		return fill;
+	}
+
+	// every pass of a strategy (not auto or multistage-auto) over baskets held in memory, on the calling
+	// thread as Son mines its partitions in parallel. After the first pass the baskets are cut down in
+	// place to their frequent items, as BasketCache does. Returns the pairs (item ids) at or above support.
+	// Items at exactly the support count are kept too, so no pair that is frequent in the partition gets
+	// lost because one of its items is only borderline.
+	public static PairCounter mine_partition(BasketBuffer baskets, double support, Strategy strategy){
+		if(strategy.auto || strategy.adaptive)
+			throw new IllegalArgumentException("Partitions are mined with a fixed strategy, not " + strategy.name);
+		PairHash[] hashes = strategy.hashes();
+		BucketBitmap[] bitVectors = new BucketBitmap[strategy.tables];
+
+		// FIRST PASS
+		int[] sizes = Arrays.copyOf(strategy.buckets, strategy.firstPassTables);
+		OffHeapArray[] firstTables = off_heap_tables(sizes);
+		PassCounters firstPass = PassCounters.items_and_buckets((firstTables == null) ? sizes : new int[0]).get();
+		baskets.forEach((basket, basket_length) -> hash_basket(firstPass, firstTables, false, hashes, basket, basket_length));
+		for(int t = 0; t < strategy.firstPassTables; t++)
+			bitVectors[t] = bit_vector(firstPass, firstTables, t, support);
+		release(firstTables);
+		FrequentItems freq_items = FrequentItems.from_counts(firstPass, Math.nextDown(support));
+		baskets.filter(freq_items, 2);
+
+		// STAGES
+		for(int t = strategy.firstPassTables; t < strategy.tables; t++){
+			int table = t;
+			OffHeapArray[] stageTables = off_heap_tables(strategy.buckets[t]);
+			OffHeapArray stageTable = (stageTables == null) ? null : stageTables[0];
+			PassCounters stage = PassCounters.buckets((stageTable == null) ? strategy.buckets[t] : 0).get();
+			baskets.forEach((basket, freq_length) -> hash_stage(stage, stageTable, false, freq_items, hashes, bitVectors, table, basket, freq_length));
+			bitVectors[t] = bit_vector(stage, stageTables, 0, support);
+			release(stageTables);
+		}
+
+		// LAST PASS
+		PassCounters lastPass = PassCounters.pairs(freq_items::new_pair_counter).get();
+		baskets.forEach((basket, freq_length) -> count_pairs(lastPass, freq_items, hashes, bitVectors, basket, freq_length));
+		lastPass.pairs.removeBelow(support);
+		PairCounter frequent = PairCounter.hashed(lastPass.pairs.size());
+		lastPass.pairs.forEach((i, j, count) -> frequent.add(freq_items.item(i), freq_items.item(j), count));
+		lastPass.pairs.release();
+		return frequent;
+	}
+
+	// AUTO, the strategy for the passes after a first pass of pcy, from the frequent items and its table
+	static Strategy choose(FrequentItems freq_items, long hashed, long used, int firstTableLength, BucketBitmap firstBitVector, double support, long heapBudget){
+		long matrix = PairCounter.triangle_size(freq_items.size());
+		double fill = (double)used / firstTableLength;
+		double frequentBuckets = (double)firstBitVector.cardinality() / firstTableLength;
+		// a pair of frequent items lands in a frequent bucket about as often as a bucket is frequent
+		long candidates = Math.min(hashed, (long)Math.ceil(matrix * frequentBuckets));
+		long candidateBytes = candidates * HASHED_BYTES_PER_PAIR;
+
+		Strategy chosen;
+		String reason;
+		if(matrix <= PairCounter.TRIANGULAR_LIMIT){
+			chosen = new Strategy("auto:apriori", 0, new int[0], false);
+			reason = String.format(Locale.ROOT, "%d frequent items, the triangular matrix of %d pairs takes %.1f MB and a bucket check would save none of it",
+					freq_items.size(), matrix, mb(4 * matrix));
+		}
+		else if(candidateBytes <= heapBudget && frequentBuckets <= SATURATED){
+			chosen = new Strategy("auto:pcy", 1, new int[]{ firstTableLength }, false);
+			reason = String.format(Locale.ROOT, "%.1f%% of the buckets frequent, about %d candidate pairs (%.1f MB hashed) fit in %.1f MB of heap, a second bucket pass would not pay for its scan",
+					100 * frequentBuckets, candidates, mb(candidateBytes), mb(heapBudget));
+		}
+		else {
+			long passing = (long)(hashed * frequentBuckets);
+			int second = stage_buckets(passing, support, firstTableLength, heapBudget);
+			long expected = (long)Math.ceil(candidates * Math.min(1.0, passing / (support * second)));
+			chosen = new Strategy("auto:multistage-2", 1, new int[]{ firstTableLength, second }, false);
+			reason = String.format(Locale.ROOT, "%.1f%% of the buckets frequent (%.1f%% used), about %d candidate pairs (%.1f MB hashed) against %.1f MB of heap, a second table of %d buckets should leave about %d (%.1f MB)",
+					100 * frequentBuckets, 100 * fill, candidates, mb(candidateBytes), mb(heapBudget), second, expected, mb(expected * HASHED_BYTES_PER_PAIR));
+			if(expected * HASHED_BYTES_PER_PAIR > heapBudget)
+				reason += ", which may still not fit: raise the support or the heap";
+		}
+		System.out.println("Auto: " + chosen.name.substring("auto:".length()) + " (" + reason + ")");
+		PassMetrics.put("auto_choice", chosen.name);
+		PassMetrics.put("auto_reason", reason);
+		PassMetrics.put("estimated_candidates", candidates);
+		PassMetrics.put("heap_budget_bytes", heapBudget);
+		return chosen;
+	}
+
+	// a table after the first only holds counts, so it can be made much larger: enough buckets for a
+	// mean load of 1% of the support, and by Markov's inequality at most 1% of them frequent, as far
+	// as the heap and MAX_STAGE_BUCKETS allow
+	static int stage_buckets(long passing, double support, int minBuckets, long heapBudget){
+		long wanted = (long)Math.ceil(100 * passing / Math.max(1, support));
+		long room = heapBudget / 4 / Integer.BYTES;
+		return (int)Math.max(minBuckets, Math.min(Math.min(wanted, room), MAX_STAGE_BUCKETS));
+	}
+
+	// pairs hashed into a table, the buckets they hit, and the pairs in its frequent buckets (the ones passing it)
+	private static long[] fill(int[] table, BucketBitmap bitVector){
+		long[] fill = new long[3];
+		for(int b = 0; b < table.length; b++){
+			fill[0] += table[b];
+			if(table[b] != 0)
+				fill[1]++;
+			fill[2] += table[b] & -bitVector.bit(b);
+		}
+		return fill;
+	}
+
+	private static long[] fill(OffHeapArray table, BucketBitmap bitVector){
+		long[] fill = new long[3];
+		for(int b = 0; b < table.length(); b++){
+			int count = table.get_int(b);
+			fill[0] += count;
+			if(count != 0)
+				fill[1]++;
+			fill[2] += count & -bitVector.bit(b);
+		}
+		return fill;
+	}
+
+	// fill of table t of a pass, offHeap or the bucket tables of the counters when it is null
+	private static long[] fill(PassCounters counters, OffHeapArray[] offHeap, int t, BucketBitmap bitVector){
+		return (offHeap == null) ? fill(counters.buckets[t], bitVector) : fill(offHeap[t], bitVector);
+	}
+
+	// frequent buckets of table t of a pass, offHeap or the bucket tables of the counters when it is null
+	static BucketBitmap bit_vector(PassCounters counters, OffHeapArray[] offHeap, int t, double support){
+		return (offHeap == null) ? BucketBitmap.from_counts(counters.buckets[t], support) : BucketBitmap.from_counts(offHeap[t], support);
+	}
+
+	// ADAPTIVE, prints what the table of a stage eliminated, returns the distinct candidate pairs estimated to be left
+	private static long report_stage(int stage, long[] fill, BucketBitmap bitVector, long before){
+		double frequentBuckets = (double)bitVector.cardinality() / Math.max(1, bitVector.size());
+		// every frequent bucket holds at least one candidate
+		long estimate = Math.min(fill[2], Math.max(bitVector.cardinality(), (long)Math.ceil(before * frequentBuckets)));
+		System.out.printf(Locale.ROOT, "Stage %d: %d pair occurrences hashed, %d eliminated (%.1f%%), about %d candidate pairs left\n",
+				stage, fill[0], fill[0] - fill[2], 100.0 * (fill[0] - fill[2]) / Math.max(1, fill[0]), estimate);
+		PassMetrics.put("eliminated_pairs", fill[0] - fill[2]);
+		PassMetrics.put("estimated_candidates", estimate);
+		return estimate;
+	}
+
+	// ADAPTIVE, true (and why, printed) when no more tables are needed before table t
+	private static boolean enough_tables(int t, long matrix, long estimate, long[] lastFill){
+		String reason = null;
+		if(matrix <= PairCounter.TRIANGULAR_LIMIT)
+			reason = "the triangular matrix of " + matrix + " pairs takes the same memory whatever the tables";
+		else if(estimate * HASHED_BYTES_PER_PAIR <= heap_budget() / 2)
+			reason = String.format(Locale.ROOT, "about %d candidate pairs (%.1f MB hashed) fit comfortably", estimate, mb(estimate * HASHED_BYTES_PER_PAIR));
+		else if(t > 1 && lastFill[0] - lastFill[2] < MIN_ELIMINATED * lastFill[0])
+			reason = String.format(Locale.ROOT, "the last stage eliminated under %.0f%% of its pairs", 100 * MIN_ELIMINATED);
+		if(reason == null)
+			return false;
+		System.out.println("Stopping at " + t + " table" + (t == 1 ? "" : "s") + ": " + reason);
+		return true;
+	}
+
+	// one shared table per size with miner.offheap, null without it (the workers count on the heap)
+	static OffHeapArray[] off_heap_tables(int... sizes){
+		if(!OffHeapArray.ENABLED)
+			return null;
+		OffHeapArray[] tables = new OffHeapArray[sizes.length];
+		for(int t = 0; t < sizes.length; t++)
+			tables[t] = OffHeapArray.ints(sizes[t]);
+		return tables;
+	}
+
+	// gives tables from off_heap_tables back, null is fine
+	static void release(OffHeapArray[] tables){
+		if(tables != null)
+			for(OffHeapArray table : tables)
+				table.release();
+	}
+
+	// half the heap not in use yet
+	static long heap_budget(){
+		Runtime runtime = Runtime.getRuntime();
+		return (runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory())) / 2;
+	}
+
+	private static double mb(long bytes){
+		return bytes / 1048576.0;
+	}
+
+	// FIRST PASS over one basket, counts its items and hashes its pairs to every table of the pass (offHeap, shared by the workers, if not null)
+	private static void hash_basket(PassCounters local, OffHeapArray[] offHeap, boolean shared, PairHash[] hashes, int[] basket, int basket_length){
+		int[][] tables = local.buckets;
+		basket_length = local.count_items(basket, basket_length);
+		if(offHeap != null){
+			for(int i = 0; i < basket_length; i++){
+				for(int j = (i + 1); j < basket_length; j++){
+					for(int t = 0; t < offHeap.length; t++){
+						if(shared)
+							offHeap[t].add_atomic(hashes[t].bucket(basket[i], basket[j]), 1);
+						else
+							offHeap[t].add(hashes[t].bucket(basket[i], basket[j]), 1);
+					}
+				}
+			}
+			return;
+		}
+		if(tables.length == 0)
+			return;
+
+		for(int i = 0; i < basket_length; i++){
+			for(int j = (i + 1); j < basket_length; j++){
+				for(int t = 0; t < tables.length; t++)
+					tables[t][hashes[t].bucket(basket[i], basket[j])]++;
+			}
+		}
+	}
+
+	// 1 if the pair maps to a frequent bucket of each of the first n tables, 0 if not
+	private static long passes(PairHash[] hashes, BucketBitmap[] bitVectors, int n, int item_i, int item_j){
+		long frequent = 1;
+		for(int t = 0; t < n; t++)
+			frequent &= bitVectors[t].bit(hashes[t].bucket(item_i, item_j));
+		return frequent;
+	}
+
+	// a pass after the first over the frequent items of every basket (compact indices, body gets their
+	// number), read from the cache when it is ready, or else from the file, filling the cache if it is
+	// still to be filled (see BasketCache)
+	private static PassCounters frequent_pass(String fileName, long start, long end, double dataSetSize, FrequentItems freq_items, BasketCache cache, Supplier<PassCounters> newCounters, PassRunner.PassBody<PassCounters> body) throws IOException{
+		if(cache != null && cache.ready())
+			return PassRunner.run(cache, newCounters, body);
+		int[] numBaskets = new int[1];
+		PassCounters counters = PassRunner.run(fileName, start, end, dataSetSize, (cache == null) ? newCounters : cache.with_parts(newCounters), (local, basket, basket_length) -> {
+			// only pairs of frequent items are candidates, so the basket is cut down to those first (in place)
+			int freq_length = freq_items.filter(basket, basket_length, basket);
+			if(PassMetrics.ENABLED)
+				local.funnel[0] += (long)basket_length * (basket_length - 1) / 2;
+			if(local.cached != null)
+				cache.add(local.cached, basket, freq_length, basket_length);
+			body.accept(local, basket, freq_length);
+		}, PassCounters::merge, numBaskets);
+		counters.numBaskets = numBaskets[0];
+		if(cache != null)
+			cache.filled();
+		return counters;
+	}
+
+	// STAGE over the frequent items of one basket, hashes the pairs left by the earlier tables into this one
+	private static void hash_stage(PassCounters local, OffHeapArray offHeap, boolean shared, FrequentItems freq_items, PairHash[] hashes, BucketBitmap[] bitVectors, int table, int[] basket, int freq_length){
+		int[] bucketHashTable = (offHeap == null) ? local.buckets[0] : null;
+		if(PassMetrics.ENABLED)
+			local.funnel[1] += (long)freq_length * (freq_length - 1) / 2;
+		for(int i = 0; i < freq_length; i++){
+			int item_i = freq_items.item(basket[i]);
+			for(int j = (i + 1); j < freq_length; j++){
+				int item_j = freq_items.item(basket[j]);
+				if(PassMetrics.ENABLED)
+					local.funnel[2] += passes(hashes, bitVectors, 1, item_i, item_j);
+				if(passes(hashes, bitVectors, table, item_i, item_j) != 0){
+					if(PassMetrics.ENABLED)
+						local.funnel[3]++;
+					int bucket = hashes[table].bucket(item_i, item_j);
+					if(bucketHashTable != null)
+						bucketHashTable[bucket]++;
+					else if(shared)
+						offHeap.add_atomic(bucket, 1);
+					else
+						offHeap.add(bucket, 1);
+				}
+			}
+		}
+	}
+
+	// LAST PASS over the frequent items of one basket, counts the pairs passing every table
+	private static void count_pairs(PassCounters local, FrequentItems freq_items, PairHash[] hashes, BucketBitmap[] bitVectors, int[] basket, int freq_length){
+		if(PassMetrics.ENABLED)
+			local.funnel[1] += (long)freq_length * (freq_length - 1) / 2;
+		if(bitVectors.length == 0){
+			for(int i = 0; i < freq_length; i++)
+				for(int j = (i + 1); j < freq_length; j++)
+					local.pairs.increment(basket[i], basket[j]);
+			return;
+		}
+		for(int i = 0; i < freq_length; i++){
+			int item_i = freq_items.item(basket[i]);
+			for(int j = (i + 1); j < freq_length; j++){
+				int item_j = freq_items.item(basket[j]);
+				long frequent = passes(hashes, bitVectors, bitVectors.length, item_i, item_j);
+				if(PassMetrics.ENABLED){
+					local.funnel[2] += passes(hashes, bitVectors, 1, item_i, item_j);
+					local.funnel[3] += frequent;
+				}
+				if(frequent != 0)
+					local.pairs.increment(basket[i], basket[j]);
+			}
+		}
+	}
+
+	// k-th PASS, counts the candidate k-itemsets (compact indices) and keeps the ones reaching support, cache may be null
+	public static ItemsetTrie count_itemsets(String fileName, FrequentItems freq_items, BasketCache cache, ItemsetTrie candidates, double support, double dataSetSize) throws IOException{
+		int k = candidates.k();
+
+		PassCounters counters = frequent_pass(fileName, 0, Long.MAX_VALUE, dataSetSize, freq_items, cache, PassCounters.buckets(candidates.size()), (local, basket, freq_length) -> {
+			// the trie is walked with a sorted basket, as FrequentItems.filter hands it out
+			if(freq_length < k)
+				return;
+			candidates.count(basket, freq_length, local.buckets[0]);
+		});
+		return candidates.frequent(counters.buckets[0], support);
+	}
+
+	// the results in the format of Pcy, larger itemsets in the format of Apriori
+	public static void print(Result result) throws IOException{
+		ResultSink sink = ResultSink.out();
+		sink.header("ITEMS\tFREQUENCY");
+		sink.items(result.items);
+
+		// number of frequent items
+		sink.header("NUMBER OF FREQUENT ITEMS: "+ result.items.size());
+
+		sink.header("\nPAIRS\t\tFREQUENCY");
+		sink.pairs(result.pairs, result.items);
+		sink.header("Number of frequent pairs: " + result.pairs.size());
+
+		for(int level = 0; level < result.itemsets.size(); level++){
+			ItemsetTrie frequent = result.itemsets.get(level);
+			sink.header("\nITEMSETS OF SIZE " + frequent.k() + "\tFREQUENCY");
+			sink.itemsets(frequent, result.items);
+			sink.header("Number of candidate itemsets of size " + frequent.k() + ": " + result.candidateItemsets.get(level));
+			sink.header("Number of frequent itemsets of size " + frequent.k() + ": " + frequent.size());
+		}
+	}
+}
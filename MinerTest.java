@@ -0,0 +1,63 @@
+/*
+ * Miner Test -- Whole Runs of the Engine Over Small Basket Files
+ *
+ * Each check writes its baskets to a temporary file, mines it and throws an AssertionError when a
+ * count is off (see PairCounterTest). Eclat, which counts its pairs apart from the engine, is
+ * checked on the same files.
+ *
+ * Usage:       $ java MinerTest
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+public class MinerTest {
+
+	public static void main(String[] args) throws IOException{
+		for(String strategy : new String[]{ "apriori", "pcy", "multihash", "multistage", "auto" })
+			repeated_items(strategy);
+		repeated_items_eclat();
+		System.out.println("MinerTest passed");
+	}
+
+	// an item listed twice in a basket is one item of that basket, and never a pair with itself
+	private static void repeated_items(String strategy) throws IOException{
+		File file = baskets("1 1 2\n2 1\n1 2 3\n0 0 1\n3 2 1\n1 2\n");
+		try {
+			Miner.Result result = Miner.mine(file.getPath(), 100, 2, Miner.Strategy.parse(strategy), 3);
+			FrequentItems items = result.items;
+			PairCounterTest.check(items.size() == 2, strategy + ": " + items.size() + " frequent items");
+			PairCounterTest.check(result.itemCounts[1] == 6, strategy + ": item 1 counted " + result.itemCounts[1] + " times");
+			PairCounterTest.check(result.pairs.size() == 1, strategy + ": " + result.pairs.size() + " frequent pairs");
+			PairCounterTest.check(result.pairs.get(items.index(1), items.index(2)) == 5, strategy + ": {1,2} counted " + result.pairs.get(items.index(1), items.index(2)) + " times");
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	// Eclat counts the pairs and basket ids of "1 1 2" once each as well, in line with the item counts
+	private static void repeated_items_eclat() throws IOException{
+		File file = baskets("1 1 2\n2 1\n1 2 3\n0 0 1\n3 2 1\n1 2\n");
+		try {
+			int[] counts = Miner.mine(file.getPath(), 100, 2, Miner.Strategy.apriori(), 1).itemCounts;
+			FrequentItems items = FrequentItems.from_counts(counts, 2);
+			Eclat.Vertical vertical = Eclat.build_tids(file.getPath(), items, 100, new int[1]);
+			PairCounterTest.check(vertical.tids[items.index(1)].cardinality() == counts[1], "eclat: item 1 in " + vertical.tids[items.index(1)].cardinality() + " baskets, counted " + counts[1] + " times");
+			PairCounterTest.check(vertical.pairs.get(items.index(1), items.index(2)) == 5, "eclat: {1,2} counted " + vertical.pairs.get(items.index(1), items.index(2)) + " times");
+			int mined = Eclat.mine(vertical, 2, 0).get(0).get(new int[]{ items.index(1), items.index(2) });
+			PairCounterTest.check(mined == 5, "eclat: {1,2} mined with count " + mined);
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	static File baskets(String lines) throws IOException{
+		File file = File.createTempFile("miner-test", ".txt");
+		Files.write(file.toPath(), lines.getBytes(StandardCharsets.US_ASCII));
+		return file;
+	}
+}
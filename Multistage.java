@@ -13,225 +13,196 @@
  * 				bitVector1 and bitVector2 and i and j are frequent items. Then checks if they match the support
  * 				threshold.
  * 
+ * The passes run in Miner (strategy multistage-2). A run with a checkpoint file is handled here
+ * (see remine), with the first two passes of Miner over the new lines only.
+ * 
  * Author: Angelo Bortolin, 104256682
  * February 17, 2019
  */
 
 import java.util.*;
 import java.io.*;
-import java.util.Map.Entry;
 
 public class Multistage {
 
 	public static void main(String[] args) throws Exception {
 		// TODO Auto-generated method stub
 
-		if(args.length != 3){
-			System.out.println("Usage of Multistage:\t<file> <support threshold %> <dataset size %>\nex.\t\t$ retail.txt 10 100");
+		if(args.length != 3 && args.length != 4){
+			System.out.println("Usage of Multistage:\t<file> <support threshold %> <dataset size %> [checkpoint file]\nex.\t\t$ retail.txt 10 100");
 			return;
 		}
 		
 		String fileName = args[0];
 		int threshold_percent = Integer.parseInt(args[1]);
 		int dataSetPercentage = Integer.parseInt(args[2]);
-		int numBaskets = 0;
-		
-		BufferedReader br = new BufferedReader(new FileReader(fileName));
-		while(br.ready()){
-			br.readLine();
-			numBaskets++;
-		}
-		br.close();
+		String checkpointFile = (args.length == 4) ? args[3] : null;
+		int numBaskets = BasketReader.count_baskets(fileName);
 		
 		double basketsToUse = numBaskets * ((double)dataSetPercentage / 100);
 		double support = basketsToUse * ((double)threshold_percent / 100);
 		
-		ArrayList<Integer> freq_items_array = new ArrayList<Integer>();
-		HashMap<Integer, Integer> itemCount = new HashMap<Integer, Integer>();
-		HashMap<Integer, Integer> bucketHashTable = new HashMap<Integer, Integer>();
 		final long startTime1 = System.currentTimeMillis();
 		
-		// FIRST PASS
-		bucketHashTable = bucket_hashing(fileName, itemCount, basketsToUse);
-		
-		// between first and second pass, making bitVector1
-		int[] bitVector1 = new int[88162];
-		for(int i = 0; i < bitVector1.length; i++){
-			if(bucketHashTable.containsKey(i) && bucketHashTable.get(i) >= support)
-				bitVector1[i] = 1;
-			else
-				bitVector1[i] = 0;
-		}
-		
-		// list of frequent items
-		System.out.printf("ITEMS\tFREQUENCY\n");
-		itemCount.forEach((key, value)->{
-			if(value > support){
-				freq_items_array.add(key);
-				System.out.printf("{%d}\t%d\n", key, value);
-			}
-		});
-		
-		// number of frequent items
-		System.out.println("NUMBER OF FREQUENT ITEMS: "+ freq_items_array.size());
+		// with a checkpoint of an earlier run over the start of the file, only the lines after it are read
+		Checkpoint checkpoint = (checkpointFile == null) ? null : Checkpoint.load(checkpointFile);
+		String mismatch = (checkpoint == null) ? "no checkpoint yet" : checkpoint.mismatch(fileName, threshold_percent, basketsToUse, NUM_BUCKETS);
+		if(checkpoint != null && mismatch == null){
+			PassMetrics.begin("remine");
+			Checkpoint next = remine(fileName, checkpoint, threshold_percent, basketsToUse, support);
+			next.save(checkpointFile);
+			PassMetrics.end();
+			long outputTime = ResultSink.finish();
 			
-		// SECOND PASS
-		HashMap<Integer, Integer> secondHashTable = new HashMap<Integer, Integer>();
-		secondHashTable = hashing_second_table(fileName, freq_items_array, bitVector1, basketsToUse);
-		
-		// between second and third pass, making bitVector2
-		int[] bitVector2 = new int[88162];
-		for(int i = 0; i < bitVector2.length; i++){
-			if(secondHashTable.containsKey(i) && secondHashTable.get(i) >= support)
-				bitVector2[i] = 1;
-			else
-				bitVector2[i] = 0;
-		}
-		
-		// THIRD PASS
-		HashMap<String, Integer> pairs_returned = new HashMap<String, Integer>();
-		pairs_returned = find_freq_pairs(fileName, freq_items_array, bitVector1, bitVector2, basketsToUse);
-		
-		// After the third pass, checking which pairs are frequent
-		Iterator<Entry<String, Integer>> itr = pairs_returned.entrySet().iterator();
-		while (itr.hasNext()){
-			Entry<String, Integer> entry = itr.next();
-			if(entry.getValue() < support)
-				itr.remove();
+			final long endTime = System.currentTimeMillis();
+			System.out.println("\nSupport: " + (int)support);
+			System.out.println("Baskets read after checkpoint: " + (next.processed - checkpoint.processed));
+			System.out.println("Total execution time: " + (endTime - startTime1 - outputTime));
+			System.out.println("Output time: " + outputTime);
+			System.out.println("Baskets in dataset: "+ (int)basketsToUse);
+			PassMetrics.write("Multistage", fileName, support, basketsToUse);
+			return;
 		}
 		
-		System.out.printf("\nPAIRS\t\tFREQUENCY\n");
-		
-		pairs_returned.forEach((key, value) -> {
-			System.out.printf("%8s\t%d\n", key, value);
-		});
-		System.out.println("Number of frequent pairs: " + pairs_returned.size());
-		
-		
-		final long endTime = System.currentTimeMillis();
-		System.out.println("\nSupport: " + (int)support);
-		System.out.println("Total execution time: " + (endTime - startTime1));
-		System.out.println("Baskets in dataset: "+ (int)basketsToUse);
-		
+		Miner.Result result = Miner.run(fileName, threshold_percent, dataSetPercentage, Miner.Strategy.multistage(2), 2);
+		if(checkpointFile != null)
+			save_checkpoint(checkpointFile, mismatch, fileName, threshold_percent, basketsToUse, result);
+		result.release();
 	}
 	
-	// hash functions used for buckets
-		public static int pcy_hash_function1(int i, int j){ 
-			return (i * j) % 88162;
-		}
-		
-		public static int pcy_hash_function2(int i, int j){ 
-			return (i + j) % 88162;
-		}
-		
-		// FIRST PASS
-		public static HashMap<Integer, Integer> bucket_hashing(String fileName, HashMap<Integer, Integer> itemCount, double dataSetSize) throws FileNotFoundException,IOException{
-			
-			HashMap<Integer, Integer> bucketHashTable = new HashMap<Integer, Integer>();
-			int numBaskets = 0;
-			BufferedReader br = new BufferedReader(new FileReader(fileName));
-			
-			while(br.ready()){
-				String line = br.readLine();
-				if(++numBaskets >= dataSetSize)
-					break;
-				StringTokenizer st = new StringTokenizer(line);
-				Vector<Integer> basket = new Vector<Integer>(); //vector for basket read
-				
-				while(st.hasMoreTokens()){
-					int num = Integer.parseInt(st.nextToken());
-					itemCount.put(num, itemCount.containsKey(num) ? itemCount.get(num) + 1 : 1); // adding 1 to items count
-					basket.add(num); // setting up basket for nested for-loop
-				}
-				
-				int basket_length = basket.size();
-				for(int i = 0; i < basket_length; i++){
-					for(int j = (i + 1); j < basket_length; j++){
-						int hashReturn = pcy_hash_function1(basket.elementAt(i),basket.elementAt(j));
-						bucketHashTable.put(hashReturn, bucketHashTable.containsKey(hashReturn) ? bucketHashTable.get(hashReturn) + 1 : 1);
-					}
-				}	
+	// buckets of each hash table (see BucketBitmap)
+	public static final int NUM_BUCKETS = BucketBitmap.num_buckets();
+	
+		// writes what this run found, so the next run over the grown file can start where this one stopped
+		private static void save_checkpoint(String checkpointFile, String mismatch, String fileName, int threshold_percent, double dataSetSize, Miner.Result result) throws IOException{
+			FrequentItems freq_items = result.items;
+			if(result.sparseItemCounts != null){
+				System.out.println("Checkpoint not written: checkpoints only keep item ids below " + PassCounters.DENSE_ITEMS);
+			}
+			else if(Checkpoint.is_text(fileName)){
+				long[] position = Checkpoint.advance(fileName, 0, 0, dataSetSize);
+				PairCounter pairs = PairCounter.hashed(result.pairs.size());
+				result.pairs.forEach((i, j, count) -> pairs.add(Math.min(freq_items.item(i), freq_items.item(j)), Math.max(freq_items.item(i), freq_items.item(j)), count));
+				new Checkpoint(threshold_percent, dataSetSize, position[0], position[1], position[2], result.itemCounts.clone(), result.first_pass_table(0), pairs).save(checkpointFile);
+				System.out.println("Checkpoint written (" + mismatch + ")");
+			}
+			else {
+				System.out.println("Checkpoint not written: checkpoints need a text basket file");
 			}
-			br.close();
-			return bucketHashTable;
-			
 		}
 		
-		// SECOND PASS
-		public static HashMap<Integer, Integer> hashing_second_table(String fileName, ArrayList<Integer> freq_items_array, int[] bitVector1, double dataSetSize) throws FileNotFoundException,IOException{
+		// DELTA RUN, the three passes over the lines after the checkpoint only, merged with the checkpoint.
+		// A pair frequent over the whole file reaches its share of the support either before the checkpoint
+		// (so it is in the checkpoint with its exact count) or after it (so the delta passes find it).
+		public static Checkpoint remine(String fileName, Checkpoint checkpoint, int threshold_percent, double dataSetSize, double support) throws IOException{
+			double threshold = (double)threshold_percent / 100;
+			double deltaSize = dataSetSize - checkpoint.processed;
+			double deltaSupport = threshold * (dataSetSize - checkpoint.basketsUsed);
+			long start = checkpoint.offset;
+			PairHash[] hashes = Miner.Strategy.multistage(2).hashes();
+			BucketBitmap[] bitVectors = new BucketBitmap[2];
 			
-			HashMap<Integer, Integer> bucketHashTable2 = new HashMap<Integer, Integer>();
-			BufferedReader br = new BufferedReader(new FileReader(fileName));
-			int numBaskets = 0;
+			// FIRST PASS (new lines), items at exactly the delta support are kept as the pairs use >=
+			OffHeapArray[] firstTable = Miner.off_heap_tables(NUM_BUCKETS);
+			PassCounters firstPass = Miner.first_pass(fileName, start, Long.MAX_VALUE, deltaSize, new int[]{ NUM_BUCKETS }, firstTable, hashes, null);
+			bitVectors[0] = Miner.bit_vector(firstPass, firstTable, 0, deltaSupport);
+			int[] firstBuckets = (firstTable == null) ? firstPass.buckets[0] : firstTable[0].to_ints();
+			Miner.release(firstTable);
+			if(firstPass.sparse_items() != null)
+				throw new IllegalArgumentException("Item ids of " + PassCounters.DENSE_ITEMS + " and above after the checkpoint, checkpoints only keep smaller ones: run without it");
+			FrequentItems delta_items = FrequentItems.from_counts(firstPass, Math.nextDown(deltaSupport));
 			
-			while(br.ready()){
-				String line = br.readLine();
-				if(++numBaskets >= dataSetSize)
-					break;
-				StringTokenizer st = new StringTokenizer(line);
-				Vector<Integer> basket = new Vector<Integer>(); //vector for basket read in
-				
-				while(st.hasMoreTokens()){
-					int num = Integer.parseInt(st.nextToken());
-					basket.add(num);			
-				}
-				
-				int basket_length = basket.size();
-				for(int i = 0; i < basket_length; i++){
-					for(int j = (i + 1); j < basket_length; j++){
-						
-						// checks if pairs map to a frequent bucket in bit vector, as well as if each item is a frequent item
-						if(bitVector1[pcy_hash_function1(basket.elementAt(i),basket.elementAt(j))] == 1 && freq_items_array.contains(basket.get(i)) && freq_items_array.contains(basket.get(j))){
-//							System.out.println(pair); //DEBUG LINE
-							int hashReturn2 = pcy_hash_function2(basket.elementAt(i),basket.elementAt(j));
-							bucketHashTable2.put(hashReturn2, bucketHashTable2.containsKey(hashReturn2) ? bucketHashTable2.get(hashReturn2) + 1 : 1);							
-						}	
+			// SECOND PASS (new lines)
+			Miner.stage_pass(fileName, start, Long.MAX_VALUE, deltaSize, delta_items, null, NUM_BUCKETS, hashes, bitVectors, 1, deltaSupport);
+			BucketBitmap bitVector1 = bitVectors[0];
+			BucketBitmap bitVector2 = bitVectors[1];
+			
+			// THIRD PASS (new lines), the candidates of the new lines and every pair of the checkpoint, on item ids
+			PairCounter saved = checkpoint.pairs;
+			int[] maxItem = { -1 };
+			saved.forEach((i, j, count) -> maxItem[0] = Math.max(maxItem[0], j));
+			boolean[] inSaved = new boolean[maxItem[0] + 1];
+			saved.forEach((i, j, count) -> {
+				inSaved[i] = true;
+				inSaved[j] = true;
+			});
+			PassCounters thirdPass = PassRunner.run(fileName, start, Long.MAX_VALUE, deltaSize, PassCounters.pairs(() -> PairCounter.hashed(saved.size() + 1024)), (local, basket, basket_length) -> {
+				int kept = 0;
+				basket_length = BasketReader.distinct(basket, basket_length);
+				for(int k = 0; k < basket_length; k++)
+					if(delta_items.contains(basket[k]) || (basket[k] < inSaved.length && inSaved[basket[k]]))
+						basket[kept++] = basket[k];
+				for(int i = 0; i < kept; i++){
+					for(int j = (i + 1); j < kept; j++){
+						int lo = Math.min(basket[i], basket[j]);
+						int hi = Math.max(basket[i], basket[j]);
+						if(saved.get(lo, hi) != 0 || (delta_items.contains(lo) && delta_items.contains(hi) && (bitVector1.bit(hashes[0].bucket(lo, hi)) & bitVector2.bit(hashes[1].bucket(lo, hi))) != 0))
+							local.pairs.increment(lo, hi);
 					}
 				}
-			}
-			br.close();
+			}, PassCounters::merge, new int[1]);
+			PairCounter delta = thirdPass.pairs;
 			
-			return bucketHashTable2;
-		}
-		
-		// THIRD PASS
-		public static HashMap<String, Integer> find_freq_pairs(String fileName, ArrayList<Integer> freq_items_array, int[] bitVector1, int[] bitVector2, double dataSetSize) throws FileNotFoundException,IOException{
+			// merging with the checkpoint
+			int[] items = sum(checkpoint.items, firstPass.items());
+			int[] buckets = sum(checkpoint.buckets, firstBuckets);
+			PairCounter total = PairCounter.hashed(saved.size() + delta.size());
+			saved.forEach((i, j, count) -> total.add(i, j, count + delta.get(i, j)));
 			
-			BufferedReader br = new BufferedReader(new FileReader(fileName));
-			HashMap<String, Integer> freq_pair = new HashMap<String, Integer>();
-			int numBaskets = 0;
+			// pairs only frequent in the new lines: the count before the checkpoint is unknown but below the old
+			// support, its first table bucket and both item counts, which is often enough to rule them out
+			int oldLimit = (int)Math.ceil(threshold * checkpoint.basketsUsed) - 1;
+			PairCounter unknown = PairCounter.hashed(16);
+			delta.forEach((i, j, count) -> {
+				if(saved.get(i, j) != 0 || count < deltaSupport)
+					return;
+				int before = Math.min(oldLimit, checkpoint.buckets[hashes[0].bucket(i, j)]);
+				before = Math.min(before, Math.min(count_of(checkpoint.items, i), count_of(checkpoint.items, j)));
+				if(count + before >= support)
+					unknown.add(i, j, count);
+			});
 			
-			while(br.ready()){
-				String line = br.readLine();
-				if(++numBaskets >= dataSetSize)
-					break;
-				StringTokenizer st = new StringTokenizer(line);
-				Vector<Integer> basket = new Vector<Integer>(); //vector for basket read in
-				
-				while(st.hasMoreTokens()){
-					int num = Integer.parseInt(st.nextToken());
-					basket.add(num);			
-				}
-				
-				int basket_length = basket.size();
-				for(int i = 0; i < basket_length; i++){
-					for(int j = (i + 1); j < basket_length; j++){
-						
-						// checks if pairs map to a frequent bucket in both bitVectors, as well as if each item is a frequent item
-						if(bitVector1[pcy_hash_function1(basket.elementAt(i),basket.elementAt(j))] == 1 && bitVector2[pcy_hash_function2(basket.elementAt(i),basket.elementAt(j))] == 1 && freq_items_array.contains(basket.get(i)) && freq_items_array.contains(basket.get(j))){
-							String pair = "{"+basket.get(i)+","+basket.get(j)+"}";
-//							System.out.println(pair); //DEBUG LINE
-							freq_pair.put(pair, (freq_pair.containsKey(pair)) ? freq_pair.get(pair) + 1 : 1);
-							
-						}	
+			// HISTORY PASS, only when some of those are left, counts just them over the lines before the checkpoint
+			if(unknown.size() > 0){
+				PassCounters history = PassRunner.run(fileName, 0, checkpoint.offset, Double.POSITIVE_INFINITY, PassCounters.pairs(() -> PairCounter.hashed(unknown.size())), (local, basket, basket_length) -> {
+					int distinct = BasketReader.distinct(basket, basket_length);
+					for(int i = 0; i < distinct; i++){
+						for(int j = (i + 1); j < distinct; j++){
+							int lo = Math.min(basket[i], basket[j]);
+							int hi = Math.max(basket[i], basket[j]);
+							if(unknown.get(lo, hi) != 0)
+								local.pairs.increment(lo, hi);
+						}
 					}
-				}		
+				}, PassCounters::merge, new int[1]);
+				unknown.forEach((i, j, count) -> total.add(i, j, count + history.pairs.get(i, j)));
 			}
-			br.close();
+			total.removeBelow(support);
 			
-			return freq_pair;
+			FrequentItems freq_items = FrequentItems.from_counts(items, support);
+			ResultSink sink = ResultSink.out();
+			sink.header("ITEMS\tFREQUENCY");
+			sink.items(freq_items);
+			sink.header("NUMBER OF FREQUENT ITEMS: "+ freq_items.size());
+			
+			sink.header("\nPAIRS\t\tFREQUENCY");
+			sink.pairs(total, null);
+			sink.header("Number of frequent pairs: " + total.size());
+			sink.header("Pairs recounted before the checkpoint: " + unknown.size());
+			
+			long[] position = Checkpoint.advance(fileName, checkpoint.processed, checkpoint.offset, dataSetSize);
+			return new Checkpoint(threshold_percent, dataSetSize, position[0], position[1], position[2], items, buckets, total);
 		}
 		
+		private static int count_of(int[] counts, int item){
+			return (item < counts.length) ? counts[item] : 0;
+		}
 		
+		private static int[] sum(int[] a, int[] b){
+			int[] sum = Arrays.copyOf(a, Math.max(a.length, b.length));
+			for(int k = 0; k < b.length; k++)
+				sum[k] += b[k];
+			return sum;
+		}
 
 }
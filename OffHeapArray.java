@@ -0,0 +1,199 @@
+/*
+ * Off-Heap Array -- Fixed-Size int or long Arrays Outside the Java Heap
+ *
+ * Turned on with the system property miner.offheap, the memory budget in bytes (with an optional
+ * k, m or g, e.g. -Dminer.offheap=2g). The engine (Miner) then keeps its bucket tables and the
+ * hashed pair counters here, so however large they get the collector has nothing more to copy or
+ * mark and its pauses stay flat.
+ *
+ * SEGMENTS:    An array is cut into segments of up to SEGMENT_BYTES, each a direct ByteBuffer while
+ * 				the budget lasts (and the JVM allows the direct memory).
+ * SPILL:       Segments past the budget are memory-mapped from a temporary file in miner.offheap.dir
+ * 				(default java.io.tmpdir). The file is deleted as soon as it is mapped, so it goes
+ * 				away with the mapping, and the OS pages it out instead of the JVM failing.
+ *
+ * Elements are in native byte order and aligned, so add_atomic() is a single atomic add and a
+ * table can be shared by every worker of a pass instead of one copy each. Direct memory only goes
+ * back to the OS once its buffer is collected, release() just gives it back to the budget.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class OffHeapArray {
+
+	public static final String BUDGET = System.getProperty("miner.offheap");
+	public static final boolean ENABLED = BUDGET != null;
+
+	private static final int SEGMENT_SHIFT = 30;
+	private static final long SEGMENT_BYTES = 1L << SEGMENT_SHIFT;
+	private static final long SEGMENT_MASK = SEGMENT_BYTES - 1;
+
+	private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+	private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+	private static final long budget = ENABLED ? parse_bytes(BUDGET, "miner.offheap") : 0;
+	private static final AtomicLong directBytes = new AtomicLong();
+	private static final AtomicLong mappedBytes = new AtomicLong();
+
+	private final ByteBuffer[] segments;
+	private final boolean[] mapped;
+	private final long length;
+	private final int shift;		// log2 of the element size
+
+	private OffHeapArray(long length, int elementBytes){
+		if(length < 0)
+			throw new IllegalArgumentException("Negative array length: " + length);
+		this.length = length;
+		this.shift = Integer.numberOfTrailingZeros(elementBytes);
+		long bytes = length << shift;
+		int count = (int)((bytes + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+		segments = new ByteBuffer[count];
+		mapped = new boolean[count];
+		for(int s = 0; s < count; s++){
+			int size = (int)Math.min(SEGMENT_BYTES, bytes - ((long)s << SEGMENT_SHIFT));
+			segments[s] = allocate(size, s);
+		}
+	}
+
+	// zeroed int array of the given length
+	public static OffHeapArray ints(long length){
+		return new OffHeapArray(length, Integer.BYTES);
+	}
+
+	// zeroed long array of the given length
+	public static OffHeapArray longs(long length){
+		return new OffHeapArray(length, Long.BYTES);
+	}
+
+	// direct memory within the budget, a mapped temporary file past it
+	private ByteBuffer allocate(int size, int segment){
+		if(directBytes.addAndGet(size) <= budget){
+			try {
+				return ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+			}
+			catch(OutOfMemoryError e){
+				// -XX:MaxDirectMemorySize is below the budget, spill the rest
+			}
+		}
+		directBytes.addAndGet(-size);
+		mapped[segment] = true;
+		mappedBytes.addAndGet(size);
+		try {
+			File dir = new File(System.getProperty("miner.offheap.dir", System.getProperty("java.io.tmpdir")));
+			File file = File.createTempFile("miner-offheap", ".bin", dir);
+			try(RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()){
+				raf.setLength(size);
+				return channel.map(FileChannel.MapMode.READ_WRITE, 0, size).order(ByteOrder.nativeOrder());
+			}
+			finally {
+				file.delete();
+			}
+		}
+		catch(IOException e){
+			throw new UncheckedIOException("Could not map off-heap segment", e);
+		}
+	}
+
+	// gives the memory back to the budget, the array must not be used afterwards
+	public void release(){
+		for(int s = 0; s < segments.length; s++){
+			if(segments[s] == null)
+				continue;
+			if(mapped[s])
+				mappedBytes.addAndGet(-segments[s].capacity());
+			else
+				directBytes.addAndGet(-segments[s].capacity());
+			segments[s] = null;
+		}
+	}
+
+	public long length(){
+		return length;
+	}
+
+	public long bytes(){
+		return length << shift;
+	}
+
+	// off-heap memory in use by all arrays, direct and mapped
+	public static long direct_bytes(){
+		return directBytes.get();
+	}
+
+	public static long mapped_bytes(){
+		return mappedBytes.get();
+	}
+
+	public int get_int(long index){
+		long offset = index << 2;
+		return (int)INT.get(segments[(int)(offset >>> SEGMENT_SHIFT)], (int)(offset & SEGMENT_MASK));
+	}
+
+	public void set_int(long index, int value){
+		long offset = index << 2;
+		INT.set(segments[(int)(offset >>> SEGMENT_SHIFT)], (int)(offset & SEGMENT_MASK), value);
+	}
+
+	public void add(long index, int delta){
+		long offset = index << 2;
+		ByteBuffer segment = segments[(int)(offset >>> SEGMENT_SHIFT)];
+		int at = (int)(offset & SEGMENT_MASK);
+		INT.set(segment, at, (int)INT.get(segment, at) + delta);
+	}
+
+	// add() for arrays shared between threads
+	public void add_atomic(long index, int delta){
+		long offset = index << 2;
+		INT.getAndAdd(segments[(int)(offset >>> SEGMENT_SHIFT)], (int)(offset & SEGMENT_MASK), delta);
+	}
+
+	public long get_long(long index){
+		long offset = index << 3;
+		return (long)LONG.get(segments[(int)(offset >>> SEGMENT_SHIFT)], (int)(offset & SEGMENT_MASK));
+	}
+
+	public void set_long(long index, long value){
+		long offset = index << 3;
+		LONG.set(segments[(int)(offset >>> SEGMENT_SHIFT)], (int)(offset & SEGMENT_MASK), value);
+	}
+
+	// copies an int array back onto the heap
+	public int[] to_ints(){
+		if(length > Integer.MAX_VALUE - 8)
+			throw new IllegalStateException("Too long for a heap array: " + length);
+		int[] values = new int[(int)length];
+		for(int k = 0; k < values.length; k++)
+			values[k] = get_int(k);
+		return values;
+	}
+
+	// "512m", "2g", "65536k" or a plain byte count, the value of the given system property
+	static long parse_bytes(String size, String property){
+		String s = size.trim().toLowerCase();
+		long unit = 1;
+		switch(s.isEmpty() ? ' ' : s.charAt(s.length() - 1)){
+		case 'k':	unit = 1L << 10; break;
+		case 'm':	unit = 1L << 20; break;
+		case 'g':	unit = 1L << 30; break;
+		default:	break;
+		}
+		try {
+			long value = Long.parseLong((unit == 1) ? s : s.substring(0, s.length() - 1)) * unit;
+			if(value < 0)
+				throw new NumberFormatException();
+			return value;
+		}
+		catch(NumberFormatException e){
+			throw new IllegalArgumentException("Bad " + property + " size: " + size + " (bytes, or with k, m or g)");
+		}
+	}
+}
@@ -0,0 +1,58 @@
+/*
+ * Off-Heap Array Test -- The Budget of miner.offheap Comes Back After Threaded Passes
+ *
+ * Runs with miner.offheap set by the test itself, before OffHeapArray is loaded, and three workers,
+ * and throws an AssertionError when a pass leaves off-heap memory counted against the budget once
+ * its results are released (see PairCounterTest).
+ *
+ * Usage:       $ java OffHeapArrayTest
+ */
+
+import java.io.File;
+import java.io.IOException;
+
+public class OffHeapArrayTest {
+
+	public static void main(String[] args) throws IOException{
+		System.setProperty("miner.offheap", "64m");
+		PassRunner.set_threads(3);
+		StringBuilder lines = new StringBuilder();
+		for(int b = 0; b < 5000; b++)
+			lines.append(b % 7).append(' ').append(7 + b % 3).append(' ').append(10 + b % 5).append('\n');
+		File file = MinerTest.baskets(lines.toString());
+		try {
+			pair_pass(file);
+			mined(file);
+		}
+		finally {
+			file.delete();
+		}
+		System.out.println("OffHeapArrayTest passed");
+	}
+
+	// the off-heap counters of the workers are given back as they are merged
+	private static void pair_pass(File file) throws IOException{
+		long before = OffHeapArray.direct_bytes() + OffHeapArray.mapped_bytes();
+		PassCounters counters = PassRunner.run(file.getPath(), Double.POSITIVE_INFINITY, PassCounters.pairs(() -> PairCounter.off_heap(64)), (local, basket, basket_length) -> {
+			for(int i = 0; i < basket_length; i++)
+				for(int j = (i + 1); j < basket_length; j++)
+					local.pairs.increment(basket[i], basket[j]);
+		});
+		PairCounterTest.check(counters.pairs.get(0, 7) == 239, "{0,7} counted " + counters.pairs.get(0, 7) + " times");
+		long held = OffHeapArray.direct_bytes() + OffHeapArray.mapped_bytes() - before;
+		PairCounterTest.check(held == counters.pairs.bytes(), held + " bytes held for a counter of " + counters.pairs.bytes());
+		counters.pairs.release();
+		PairCounterTest.check(OffHeapArray.direct_bytes() + OffHeapArray.mapped_bytes() == before, "budget not back after the pass");
+	}
+
+	// the shared bucket tables and the pairs of a run are given back with the Result
+	private static void mined(File file) throws IOException{
+		long before = OffHeapArray.direct_bytes() + OffHeapArray.mapped_bytes();
+		for(String strategy : new String[]{ "pcy", "multistage-3", "multihash" }){
+			Miner.Result result = Miner.mine(file.getPath(), Double.POSITIVE_INFINITY, 100, Miner.Strategy.parse(strategy), 2);
+			PairCounterTest.check(result.pairs.size() > 0, strategy + ": no frequent pairs");
+			result.release();
+			PairCounterTest.check(OffHeapArray.direct_bytes() + OffHeapArray.mapped_bytes() == before, strategy + ": budget not back after the run");
+		}
+	}
+}
@@ -0,0 +1,416 @@
+/*
+ * Pair Counter -- Counting Candidate Pairs Without Boxing
+ *
+ * Shared by Apriori, Pcy, Multihash and Multistage for the pair counting pass. Three storage modes:
+ *
+ * HASHED:      Open addressing table keyed on the pair packed into a long (the smaller item in the high
+ * 				32 bits, the larger in the low 32 bits) with int counts in a parallel array. Linear
+ * 				probing, grows at 50% load up to MAX_CAPACITY slots (2^29 pairs), past which it
+ * 				fails with "Too many pairs" instead of overflowing the array size.
+ * TRIANGULAR:  For dense sets of frequent items numbered 0..n-1. Counts are held in a flat int array
+ * 				of n(n-1)/2 entries using the triangular matrix layout, so there is no key storage at
+ * 				all.
+ * OFF-HEAP:    HASHED with the keys and counts in OffHeapArrays, handed out by
+ * 				FrequentItems.new_pair_counter() instead of HASHED when miner.offheap is set.
+ *
+ * In every mode {i,j} and {j,i} are the same pair, counted and handed back as (min, max), so the
+ * results do not depend on the order of the items in a basket or on the mode picked. Each mode is a
+ * nested subclass of this abstract class, which holds the pair packing and the probing hash.
+ */
+
+public abstract class PairCounter {
+
+	// callback used to walk the counted pairs
+	public interface PairConsumer {
+		void accept(int i, int j, int count);
+	}
+
+	private static final int MIN_CAPACITY = 16;
+	private static final int MAX_CAPACITY = 1 << 30;	// largest power of two an array can hold
+
+	// largest triangular matrix handed out by FrequentItems.new_pair_counter() (16 MB of counts)
+	public static final long TRIANGULAR_LIMIT = 1L << 22;
+
+	// open addressing table sized for roughly expectedPairs distinct pairs
+	public static PairCounter hashed(int expectedPairs){
+		int capacity = MIN_CAPACITY;
+		while(capacity < expectedPairs * 2L && capacity < MAX_CAPACITY)
+			capacity <<= 1;
+		return new Hashed(capacity);
+	}
+
+	// HASHED outside the heap (see OffHeapArray)
+	public static PairCounter off_heap(int expectedPairs){
+		long capacity = MIN_CAPACITY;
+		while(capacity < expectedPairs * 2L)
+			capacity <<= 1;
+		return new OffHeap(capacity);
+	}
+
+	// triangular matrix over compact item indices 0..numItems-1
+	public static PairCounter triangular(int numItems){
+		if(triangle_size(numItems) > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("Too many items for triangular mode: " + numItems);
+		return new Triangular(numItems);
+	}
+
+	public static long triangle_size(int n){
+		return (long)n * (n - 1) / 2;
+	}
+
+	// the pair {i,j} as one long, the same whichever order the items come in
+	public static long pack(int i, int j){
+		if(i > j){
+			int t = i; i = j; j = t;
+		}
+		return ((long)i << 32) | (j & 0xFFFFFFFFL);
+	}
+
+	public static int first(long pair){
+		return (int)(pair >>> 32);
+	}
+
+	public static int second(long pair){
+		return (int)pair;
+	}
+
+	// murmur3 64-bit finalizer, spreads packed pairs over the table
+	static int slot_hash(long key){
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int)key;
+	}
+
+	// smallest table with room for kept pairs at 50% load
+	private static long capacity_for(long kept){
+		long capacity = MIN_CAPACITY;
+		while(capacity < kept * 2)
+			capacity <<= 1;
+		return capacity;
+	}
+
+	private static void check_pair(int i, int j){
+		if(i == j)
+			throw new IllegalArgumentException("Not a pair: {" + i + "," + j + "}");
+	}
+
+	public boolean isTriangular(){
+		return false;
+	}
+
+	public void increment(int i, int j){
+		add(i, j, 1);
+	}
+
+	public abstract void add(int i, int j, int delta);
+
+	public abstract int get(int i, int j);
+
+	// gives the memory of an off-heap counter back to the budget of miner.offheap, nothing to do on the heap
+	public void release(){
+	}
+
+	// number of pairs with a non-zero count
+	public abstract int size();
+
+	// memory held by the counts (and keys)
+	public abstract long bytes();
+
+	// drops every pair whose count is below the support threshold
+	public abstract void removeBelow(double support);
+
+	// adds every count of another counter into this one
+	public void merge(PairCounter other){
+		other.forEach(this::add);
+	}
+
+	public abstract void forEach(PairConsumer consumer);
+
+	// TRIANGULAR
+	private static final class Triangular extends PairCounter {
+		private final int numItems;
+		private final int[] counts;
+
+		Triangular(int numItems){
+			this.numItems = numItems;
+			this.counts = new int[(int)triangle_size(numItems)];
+		}
+
+		// position of (i,j), i < j, in the triangular array
+		private int triangle_index(int i, int j){
+			return (int)((long)i * (2L * numItems - i - 1) / 2 + (j - i - 1));
+		}
+
+		@Override
+		public boolean isTriangular(){
+			return true;
+		}
+
+		@Override
+		public void add(int i, int j, int delta){
+			check_pair(i, j);
+			if(i > j){
+				int t = i; i = j; j = t;
+			}
+			counts[triangle_index(i, j)] += delta;
+		}
+
+		@Override
+		public int get(int i, int j){
+			if(i == j)
+				return 0;
+			if(i > j){
+				int t = i; i = j; j = t;
+			}
+			return counts[triangle_index(i, j)];
+		}
+
+		@Override
+		public int size(){
+			int n = 0;
+			for(int c : counts)
+				if(c != 0)
+					n++;
+			return n;
+		}
+
+		@Override
+		public long bytes(){
+			return 4L * counts.length;
+		}
+
+		@Override
+		public void removeBelow(double support){
+			for(int k = 0; k < counts.length; k++)
+				if(counts[k] < support)
+					counts[k] = 0;
+		}
+
+		@Override
+		public void merge(PairCounter other){
+			if(other instanceof Triangular && ((Triangular)other).numItems == numItems){
+				int[] otherCounts = ((Triangular)other).counts;
+				for(int k = 0; k < counts.length; k++)
+					counts[k] += otherCounts[k];
+				return;
+			}
+			super.merge(other);
+		}
+
+		@Override
+		public void forEach(PairConsumer consumer){
+			int k = 0;
+			for(int i = 0; i < numItems; i++)
+				for(int j = i + 1; j < numItems; j++, k++)
+					if(counts[k] != 0)
+						consumer.accept(i, j, counts[k]);
+		}
+	}
+
+	// HASHED, a slot is empty when its count is 0
+	private static final class Hashed extends PairCounter {
+		private long[] keys;
+		private int[] counts;
+		private int mask;
+		private int size;
+
+		Hashed(int capacity){
+			allocate(capacity);
+		}
+
+		private void allocate(int capacity){
+			keys = new long[capacity];
+			counts = new int[capacity];
+			mask = capacity - 1;
+			size = 0;
+		}
+
+		@Override
+		public void add(int i, int j, int delta){
+			check_pair(i, j);
+			long key = pack(i, j);
+			int pos = slot_hash(key) & mask;
+			while(counts[pos] != 0){
+				if(keys[pos] == key){
+					counts[pos] += delta;
+					return;
+				}
+				pos = (pos + 1) & mask;
+			}
+			keys[pos] = key;
+			counts[pos] = delta;
+			if(++size * 2 > counts.length){
+				if(counts.length == MAX_CAPACITY)
+					throw new IllegalStateException("Too many pairs for a hashed counter on the heap: " + size + " (-Dminer.offheap counts them off the heap)");
+				rehash(counts.length << 1, 0);
+			}
+		}
+
+		@Override
+		public int get(int i, int j){
+			long key = pack(i, j);
+			int pos = slot_hash(key) & mask;
+			while(counts[pos] != 0){
+				if(keys[pos] == key)
+					return counts[pos];
+				pos = (pos + 1) & mask;
+			}
+			return 0;
+		}
+
+		@Override
+		public int size(){
+			return size;
+		}
+
+		@Override
+		public long bytes(){
+			return 4L * counts.length + 8L * keys.length;
+		}
+
+		@Override
+		public void removeBelow(double support){
+			int kept = 0;
+			for(int k = 0; k < counts.length; k++)
+				if(counts[k] != 0 && counts[k] >= support)
+					kept++;
+			rehash((int)capacity_for(kept), support);
+		}
+
+		@Override
+		public void forEach(PairConsumer consumer){
+			for(int k = 0; k < counts.length; k++)
+				if(counts[k] != 0)
+					consumer.accept(first(keys[k]), second(keys[k]), counts[k]);
+		}
+
+		// moves the pairs counted at least minCount times into a table of the given capacity
+		private void rehash(int capacity, double minCount){
+			long[] oldKeys = keys;
+			int[] oldCounts = counts;
+			allocate(capacity);
+			for(int k = 0; k < oldCounts.length; k++){
+				int count = oldCounts[k];
+				if(count == 0 || count < minCount)
+					continue;
+				int pos = slot_hash(oldKeys[k]) & mask;
+				while(counts[pos] != 0)
+					pos = (pos + 1) & mask;
+				keys[pos] = oldKeys[k];
+				counts[pos] = count;
+				size++;
+			}
+		}
+	}
+
+	// OFF-HEAP, same probing as HASHED over long slot numbers
+	private static final class OffHeap extends PairCounter {
+		private OffHeapArray offKeys;
+		private OffHeapArray offCounts;
+		private long offMask;
+		private long offSize;
+
+		OffHeap(long capacity){
+			allocate(capacity);
+		}
+
+		private void allocate(long capacity){
+			offKeys = OffHeapArray.longs(capacity);
+			offCounts = OffHeapArray.ints(capacity);
+			offMask = capacity - 1;
+			offSize = 0;
+		}
+
+		@Override
+		public void add(int i, int j, int delta){
+			check_pair(i, j);
+			long key = pack(i, j);
+			long pos = slot_hash(key) & offMask;
+			for(int count = offCounts.get_int(pos); count != 0; count = offCounts.get_int(pos)){
+				if(offKeys.get_long(pos) == key){
+					offCounts.set_int(pos, count + delta);
+					return;
+				}
+				pos = (pos + 1) & offMask;
+			}
+			offKeys.set_long(pos, key);
+			offCounts.set_int(pos, delta);
+			if(++offSize * 2 > offCounts.length())
+				rehash(offCounts.length() << 1, 0);
+		}
+
+		@Override
+		public int get(int i, int j){
+			long key = pack(i, j);
+			long pos = slot_hash(key) & offMask;
+			for(int count = offCounts.get_int(pos); count != 0; count = offCounts.get_int(pos)){
+				if(offKeys.get_long(pos) == key)
+					return count;
+				pos = (pos + 1) & offMask;
+			}
+			return 0;
+		}
+
+		@Override
+		public void release(){
+			offKeys.release();
+			offCounts.release();
+		}
+
+		@Override
+		public int size(){
+			return (int)offSize;
+		}
+
+		@Override
+		public long bytes(){
+			return offKeys.bytes() + offCounts.bytes();
+		}
+
+		@Override
+		public void removeBelow(double support){
+			long kept = 0;
+			for(long k = 0; k < offCounts.length(); k++){
+				int count = offCounts.get_int(k);
+				if(count != 0 && count >= support)
+					kept++;
+			}
+			rehash(capacity_for(kept), support);
+		}
+
+		@Override
+		public void forEach(PairConsumer consumer){
+			for(long k = 0; k < offCounts.length(); k++){
+				int count = offCounts.get_int(k);
+				if(count != 0){
+					long key = offKeys.get_long(k);
+					consumer.accept(first(key), second(key), count);
+				}
+			}
+		}
+
+		// moves the pairs counted at least minCount times into a table of the given capacity
+		private void rehash(long capacity, double minCount){
+			OffHeapArray oldKeys = offKeys;
+			OffHeapArray oldCounts = offCounts;
+			allocate(capacity);
+			for(long k = 0; k < oldCounts.length(); k++){
+				int count = oldCounts.get_int(k);
+				if(count == 0 || count < minCount)
+					continue;
+				long key = oldKeys.get_long(k);
+				long pos = slot_hash(key) & offMask;
+				while(offCounts.get_int(pos) != 0)
+					pos = (pos + 1) & offMask;
+				offKeys.set_long(pos, key);
+				offCounts.set_int(pos, count);
+				offSize++;
+			}
+			oldKeys.release();
+			oldCounts.release();
+		}
+	}
+}
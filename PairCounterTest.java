@@ -0,0 +1,49 @@
+/*
+ * Pair Counter Test -- Checks of PairCounter in Every Storage Mode
+ *
+ * There is no test framework in this project, so each check throws an AssertionError when it fails
+ * and the program ends with a line saying everything passed.
+ *
+ * Usage:       $ java PairCounterTest
+ */
+
+public class PairCounterTest {
+
+	public static void main(String[] args){
+		both_orders(PairCounter.triangular(4), "triangular");
+		both_orders(PairCounter.hashed(4), "hashed");
+		both_orders(PairCounter.off_heap(4), "off-heap");
+		not_a_pair(PairCounter.triangular(4), "triangular");
+		not_a_pair(PairCounter.hashed(4), "hashed");
+		not_a_pair(PairCounter.off_heap(4), "off-heap");
+		System.out.println("PairCounterTest passed");
+	}
+
+	// the same basket read in both orders counts one pair twice, whatever the mode
+	private static void both_orders(PairCounter pairs, String mode){
+		int[][] baskets = { { 1, 3 }, { 3, 1 } };
+		for(int[] basket : baskets)
+			pairs.increment(basket[0], basket[1]);
+		check(pairs.get(1, 3) == 2, mode + ": get(1, 3) is " + pairs.get(1, 3));
+		check(pairs.get(3, 1) == 2, mode + ": get(3, 1) is " + pairs.get(3, 1));
+		check(pairs.size() == 1, mode + ": " + pairs.size() + " pairs counted");
+		pairs.forEach((i, j, count) -> check(i == 1 && j == 3 && count == 2, mode + ": walked {" + i + "," + j + "} " + count));
+	}
+
+	// an item with itself is rejected instead of landing in the cell of another pair
+	private static void not_a_pair(PairCounter pairs, String mode){
+		try {
+			pairs.increment(2, 2);
+		}
+		catch(IllegalArgumentException e){
+			check(pairs.size() == 0, mode + ": " + pairs.size() + " pairs counted");
+			return;
+		}
+		throw new AssertionError(mode + ": {2,2} was counted");
+	}
+
+	static void check(boolean ok, String failure){
+		if(!ok)
+			throw new AssertionError(failure);
+	}
+}
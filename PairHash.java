@@ -0,0 +1,97 @@
+/*
+ * Pair Hash -- Hash Functions Mapping a Pair of Items to a Bucket
+ *
+ * Used by the bucket passes of Pcy, Multihash and Multistage. A pair hashes the same whichever order
+ * its items come in. Three families, chosen with the system property miner.hash:
+ *
+ * murmur:      (default) the pair packed into a long, xored with a per-table seed and run through
+ * 				the murmur3 64-bit finalizer. Every input bit affects every output bit.
+ * multiply:    multiply-shift over both items, (a1*i + a2*j + b) >> 32 with random 64-bit a1, a2, b
+ * 				per table. Cheaper than murmur and still universal.
+ * legacy:      the original (i*j) and (i+j) modulo the table size, for comparing with old runs. Only
+ * 				two tables exist in this family. Every pair with item 0 falls in bucket 0, and i+j
+ * 				puts a whole anti-diagonal of pairs in one bucket.
+ *
+ * The 32-bit hash is mapped onto the buckets with a multiply and shift instead of a modulo, so the
+ * table size does not need to be a power of two. Seeds come from miner.hash.seed (default fixed),
+ * so runs are repeatable.
+ */
+
+import java.util.SplittableRandom;
+
+public interface PairHash {
+
+	// bucket of the pair {i, j}, in 0..numBuckets-1
+	int bucket(int i, int j);
+
+	// numTables independent hash functions of the family named by miner.hash
+	static PairHash[] family(int numTables, int numBuckets){
+		return family(family_name(), numTables, numBuckets, seed());
+	}
+
+	static String family_name(){
+		return System.getProperty("miner.hash", "murmur");
+	}
+
+	static long seed(){
+		return Long.getLong("miner.hash.seed", 0x5DEECE66DL);
+	}
+
+	static PairHash[] family(String name, int numTables, int numBuckets, long seed){
+		if(numBuckets < 1)
+			throw new IllegalArgumentException("Bucket count must be at least 1: " + numBuckets);
+		SplittableRandom random = new SplittableRandom(seed);
+		PairHash[] hashes = new PairHash[numTables];
+		for(int t = 0; t < numTables; t++){
+			switch(name){
+			case "murmur":
+				hashes[t] = murmur(numBuckets, random.nextLong());
+				break;
+			case "multiply":
+				hashes[t] = multiply_shift(numBuckets, random.nextLong(), random.nextLong(), random.nextLong());
+				break;
+			case "legacy":
+				if(t > 1)
+					throw new IllegalArgumentException("The legacy hash family only has two functions, " + numTables + " tables asked for");
+				hashes[t] = (t == 0) ? legacy_product(numBuckets) : legacy_sum(numBuckets);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown hash family: " + name + " (murmur, multiply or legacy)");
+			}
+		}
+		return hashes;
+	}
+
+	static PairHash murmur(int numBuckets, long seed){
+		return (i, j) -> {
+			long key = PairCounter.pack(Math.min(i, j), Math.max(i, j)) ^ seed;
+			key ^= key >>> 33;
+			key *= 0xff51afd7ed558ccdL;
+			key ^= key >>> 33;
+			key *= 0xc4ceb9fe1a85ec53L;
+			key ^= key >>> 33;
+			return reduce((int)key, numBuckets);
+		};
+	}
+
+	static PairHash multiply_shift(int numBuckets, long a1, long a2, long b){
+		return (i, j) -> {
+			long lo = Math.min(i, j) & 0xFFFFFFFFL;
+			long hi = Math.max(i, j) & 0xFFFFFFFFL;
+			return reduce((int)((a1 * lo + a2 * hi + b) >>> 32), numBuckets);
+		};
+	}
+
+	static PairHash legacy_product(int numBuckets){
+		return (i, j) -> (int)Math.floorMod((long)i * j, (long)numBuckets);
+	}
+
+	static PairHash legacy_sum(int numBuckets){
+		return (i, j) -> (int)Math.floorMod((long)i + j, (long)numBuckets);
+	}
+
+	// maps a 32-bit hash onto 0..numBuckets-1 through the high bits of hash * numBuckets
+	static int reduce(int hash, int numBuckets){
+		return (int)(((hash & 0xFFFFFFFFL) * numBuckets) >>> 32);
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * Pass Counters -- Per-Thread Counts of One Pass Over the Baskets
+ *
+ * Every worker of PassRunner fills its own PassCounters, so nothing is shared while the pass runs.
+ * When all chunks are done the counters are merged into one by adding them up. Only the parts a
+ * pass asks for are allocated:
+ *
+ * items:       int[] of item counts indexed by item id, grown as larger ids show up, up to DENSE_ITEMS.
+ * 				The few ids past that are counted in a HashMap, so one huge id costs an entry
+ * 				instead of an array of gigabytes.
+ * buckets:     one int[] of bucket counts per hash table, sizes fixed when the pass starts.
+ * pairs:       a PairCounter from the supplier given to the pass.
+ * funnel:      pair occurrences left after each filter of a pair pass, only counted with
+ * 				PassMetrics.ENABLED (see PassMetrics.funnel).
+ * cached:      the BasketBuffer this worker fills for a BasketCache, or null.
+ */
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map.Entry;
+import java.util.function.Supplier;
+
+public class PassCounters {
+
+	// item ids below this are counted in the int[], 64 MB at most
+	public static final int DENSE_ITEMS = 1 << 24;
+
+	private final boolean countItems;
+	private int[] items;
+	private HashMap<Integer, Integer> sparseItems;	// ids of DENSE_ITEMS and above, null until one shows up
+	public final int[][] buckets;
+	public final PairCounter pairs;
+	public final long[] funnel = new long[4];
+
+	// what the old BufferedReader loop of the pass would have counted, set by PassRunner
+	public int numBaskets;
+
+	// set by BasketCache.with_parts
+	public BasketBuffer cached;
+
+	public PassCounters(boolean countItems, int[] bucketSizes, PairCounter pairs){
+		this.countItems = countItems;
+		this.items = countItems ? new int[1024] : null;
+		this.buckets = new int[bucketSizes.length][];
+		for(int t = 0; t < bucketSizes.length; t++)
+			buckets[t] = new int[bucketSizes[t]];
+		this.pairs = pairs;
+	}
+
+	// counters for item counts and the given bucket tables only
+	public static Supplier<PassCounters> items_and_buckets(int... bucketSizes){
+		return () -> new PassCounters(true, bucketSizes, null);
+	}
+
+	public static Supplier<PassCounters> buckets(int... bucketSizes){
+		return () -> new PassCounters(false, bucketSizes, null);
+	}
+
+	public static Supplier<PassCounters> pairs(Supplier<PairCounter> newPairs){
+		return () -> new PassCounters(false, new int[0], newPairs.get());
+	}
+
+	public void count_item(int item){
+		if(item < 0)
+			throw new IllegalArgumentException("Negative item id: " + item);
+		if(item >= DENSE_ITEMS){
+			if(sparseItems == null)
+				sparseItems = new HashMap<Integer, Integer>();
+			sparseItems.merge(item, 1, Integer::sum);
+			return;
+		}
+		if(item >= items.length)
+			items = Arrays.copyOf(items, Math.min(DENSE_ITEMS, Math.max(item + 1, items.length * 2)));
+		items[item]++;
+	}
+
+	// adds 1 to the count of each distinct item of a basket, so "5 5" counts 5 once as the pairs do. The
+	// basket is cut down to its distinct items in place (see BasketReader.distinct), their number is returned.
+	public int count_items(int[] basket, int basket_length){
+		basket_length = BasketReader.distinct(basket, basket_length);
+		for(int k = 0; k < basket_length; k++)
+			count_item(basket[k]);
+		return basket_length;
+	}
+
+	// item counts indexed by item id, the array may be longer than the largest id; ids of DENSE_ITEMS
+	// and above are in sparse_items()
+	public int[] items(){
+		return items;
+	}
+
+	// counts of the item ids of DENSE_ITEMS and above, null when there were none
+	public HashMap<Integer, Integer> sparse_items(){
+		return sparseItems;
+	}
+
+	public void merge(PassCounters other){
+		if(countItems){
+			if(other.items.length > items.length)
+				items = Arrays.copyOf(items, other.items.length);
+			for(int item = 0; item < other.items.length; item++)
+				items[item] += other.items[item];
+			if(other.sparseItems != null){
+				if(sparseItems == null)
+					sparseItems = new HashMap<Integer, Integer>();
+				for(Entry<Integer, Integer> entry : other.sparseItems.entrySet())
+					sparseItems.merge(entry.getKey(), entry.getValue(), Integer::sum);
+			}
+		}
+		for(int t = 0; t < buckets.length; t++)
+			for(int b = 0; b < buckets[t].length; b++)
+				buckets[t][b] += other.buckets[t][b];
+		if(pairs != null){
+			pairs.merge(other.pairs);
+			other.pairs.release();
+		}
+		for(int s = 0; s < funnel.length; s++)
+			funnel[s] += other.funnel[s];
+	}
+}
@@ -0,0 +1,226 @@
+/*
+ * Pass Metrics -- Per-Pass Figures of a Run, Written as JSON
+ *
+ * Turned on with the system property miner.metrics, naming the file the figures are appended to
+ * (one JSON object per run and line), or "-" for stderr. When it is not set nothing is recorded,
+ * and the counting in the hot loops is skipped as ENABLED is a constant.
+ *
+ * PASS:        Every pass of a miner is put between begin() and end(). It records the wall time, the
+ * 				bytes allocated by all threads, the collections and GC time, and from PassRunner the
+ * 				baskets and the bytes of the file read (whole chunks, so the chunk holding the
+ * 				dataSetSize cut-off counts in full).
+ * TABLES:      For bucket passes: the pairs hashed, the bucket count and memory, the fraction of
+ * 				buckets hit at all and the fraction that reached the support.
+ * FUNNEL:      For pair passes: how many pair occurrences are left after each filter, from every pair
+ * 				in the baskets down to the candidates counted (see PassCounters.funnel), and the size of
+ * 				the pair counter.
+ */
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map.Entry;
+
+public class PassMetrics {
+
+	public static final String TARGET = System.getProperty("miner.metrics");
+	public static final boolean ENABLED = TARGET != null;
+
+	// figures of one pass, in the order they were recorded
+	private static class Pass {
+		final String name;
+		final long startNanos = System.nanoTime();
+		final long startBytes = allocated_bytes();
+		final long[] startGc = gc_counts();
+		final LinkedHashMap<String, Object> values = new LinkedHashMap<String, Object>();
+
+		Pass(String name){
+			this.name = name;
+		}
+	}
+
+	private static final List<Pass> passes = new ArrayList<Pass>();
+	private static Pass current;
+	private static long runStart = System.nanoTime();
+
+	public static synchronized void begin(String name){
+		if(!ENABLED)
+			return;
+		if(passes.isEmpty() && current == null)
+			runStart = System.nanoTime();
+		current = new Pass(name);
+	}
+
+	public static synchronized void end(){
+		if(!ENABLED || current == null)
+			return;
+		long[] gc = gc_counts();
+		current.values.put("millis", (System.nanoTime() - current.startNanos) / 1e6);
+		current.values.put("allocated_bytes", allocated_bytes() - current.startBytes);
+		current.values.put("gc_count", gc[0] - current.startGc[0]);
+		current.values.put("gc_millis", gc[1] - current.startGc[1]);
+		passes.add(current);
+		current = null;
+	}
+
+	// sets a figure of the pass running now, ignored outside a pass
+	public static synchronized void put(String key, Object value){
+		if(ENABLED && current != null)
+			current.values.put(key, value);
+	}
+
+	// adds to a figure of the pass running now, for passes made of several PassRunner runs
+	public static synchronized void add(String key, long delta){
+		if(ENABLED && current != null)
+			current.values.merge(key, delta, (a, b) -> (Long)a + (Long)b);
+	}
+
+	// TABLES, the counts of each bucket table with the bitmap of its frequent buckets
+	public static void tables(int[][] buckets, BucketBitmap[] bitVectors){
+		if(!ENABLED)
+			return;
+		long hashed = 0;
+		long used = 0;
+		long frequent = 0;
+		long total = 0;
+		for(int t = 0; t < buckets.length; t++){
+			for(int count : buckets[t]){
+				hashed += count;
+				if(count != 0)
+					used++;
+			}
+			total += buckets[t].length;
+			frequent += bitVectors[t].cardinality();
+		}
+		put("pairs_hashed", hashed / Math.max(1, buckets.length));
+		put("tables", buckets.length);
+		put("buckets", total);
+		put("bucket_bytes", 4 * total);
+		put("bucket_fill", (double)used / Math.max(1, total));
+		put("frequent_buckets", (double)frequent / Math.max(1, total));
+	}
+
+	// same as above for tables kept off the heap, with the off-heap memory in use
+	public static void tables(OffHeapArray[] buckets, BucketBitmap[] bitVectors){
+		if(!ENABLED)
+			return;
+		long hashed = 0;
+		long used = 0;
+		long frequent = 0;
+		long total = 0;
+		for(int t = 0; t < buckets.length; t++){
+			for(long b = 0; b < buckets[t].length(); b++){
+				int count = buckets[t].get_int(b);
+				hashed += count;
+				if(count != 0)
+					used++;
+			}
+			total += buckets[t].length();
+			frequent += bitVectors[t].cardinality();
+		}
+		put("pairs_hashed", hashed / Math.max(1, buckets.length));
+		put("tables", buckets.length);
+		put("buckets", total);
+		put("bucket_bytes", 4 * total);
+		put("bucket_fill", (double)used / Math.max(1, total));
+		put("frequent_buckets", (double)frequent / Math.max(1, total));
+		put("off_heap_direct_bytes", OffHeapArray.direct_bytes());
+		put("off_heap_mapped_bytes", OffHeapArray.mapped_bytes());
+	}
+
+	// FUNNEL, names for the stages of PassCounters.funnel that the pass filled in
+	public static void funnel(PassCounters counters, String... stages){
+		if(!ENABLED)
+			return;
+		for(int s = 0; s < stages.length; s++)
+			put(stages[s], counters.funnel[s]);
+		if(counters.pairs != null){
+			put("pair_counter", counters.pairs.isTriangular() ? "triangular" : "hashed");
+			put("pair_counter_bytes", counters.pairs.bytes());
+			put("distinct_candidates", counters.pairs.size());
+		}
+	}
+
+	// appends the run to the metrics target and starts over
+	public static synchronized void write(String miner, String fileName, double support, double dataSetSize) throws IOException{
+		if(!ENABLED)
+			return;
+		StringBuilder json = new StringBuilder("{");
+		json.append("\"miner\":").append(quote(miner));
+		json.append(",\"file\":").append(quote(fileName));
+		json.append(",\"support\":").append(value(support));
+		json.append(",\"baskets\":").append((long)dataSetSize);
+		json.append(",\"threads\":").append(PassRunner.threads());
+		json.append(",\"millis\":").append(value((System.nanoTime() - runStart) / 1e6));
+		json.append(",\"passes\":[");
+		for(int p = 0; p < passes.size(); p++){
+			json.append((p == 0) ? "{" : ",{").append("\"name\":").append(quote(passes.get(p).name));
+			for(Entry<String, Object> entry : passes.get(p).values.entrySet())
+				json.append(",").append(quote(entry.getKey())).append(":").append(value(entry.getValue()));
+			json.append("}");
+		}
+		json.append("]}");
+		passes.clear();
+		current = null;
+
+		if(TARGET.equals("-")){
+			System.err.println(json);
+			return;
+		}
+		try(PrintStream out = new PrintStream(new FileOutputStream(TARGET, true))){
+			out.println(json);
+		}
+	}
+
+	private static String value(Object value){
+		if(value instanceof Double){
+			double d = (Double)value;
+			return Double.isFinite(d) ? String.format(Locale.ROOT, "%.4f", d) : "null";
+		}
+		if(value instanceof Number)
+			return value.toString();
+		return quote(String.valueOf(value));
+	}
+
+	private static String quote(String s){
+		StringBuilder sb = new StringBuilder("\"");
+		for(int k = 0; k < s.length(); k++){
+			char c = s.charAt(k);
+			if(c == '"' || c == '\\')
+				sb.append('\\').append(c);
+			else if(c < 0x20)
+				sb.append(String.format("\\u%04x", (int)c));
+			else
+				sb.append(c);
+		}
+		return sb.append("\"").toString();
+	}
+
+	// bytes allocated so far by every live thread, 0 where the JVM cannot tell
+	public static long allocated_bytes(){
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if(!(threads instanceof com.sun.management.ThreadMXBean))
+			return 0;
+		long total = 0;
+		for(long bytes : ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(threads.getAllThreadIds()))
+			if(bytes > 0)
+				total += bytes;
+		return total;
+	}
+
+	// collection count and time (ms) so far over all collectors
+	public static long[] gc_counts(){
+		long[] totals = new long[2];
+		for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()){
+			totals[0] += Math.max(0, collector.getCollectionCount());
+			totals[1] += Math.max(0, collector.getCollectionTime());
+		}
+		return totals;
+	}
+}
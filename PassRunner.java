@@ -0,0 +1,283 @@
+/*
+ * Pass Runner -- Parallel Execution of One Pass Over the Basket File
+ *
+ * SPLIT:       The baskets of the pass are split into chunks: byte ranges of the text file aligned
+ * 				to line boundaries, or groups of records found through the index of a binary file.
+ * 				For text the lines of each chunk are counted in parallel first, so the dataSetSize
+ * 				cut-off can be turned into a basket limit per chunk.
+ * RUN:         A fork-join pool of miner.threads workers takes chunks off a shared queue. Each worker
+ * 				fills its own PassCounters, so the hot loop never touches shared memory.
+ * MERGE:       The worker counters are added together. Counting is exact, so the result is the
+ * 				same as a sequential run.
+ * CACHE:       A pass over a BasketCache splits its buffers into ranges of baskets instead, run and
+ * 				merged the same way.
+ *
+ * The number of threads is read from the system property miner.threads (e.g. -Dminer.threads=4)
+ * and defaults to the number of available processors.
+ */
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+public class PassRunner {
+
+	// body of a pass, called once per basket with the state (usually PassCounters) of the current worker
+	public interface PassBody<S> {
+		void accept(S state, int[] basket, int length);
+	}
+
+	// folds the state of another worker into result
+	public interface PassMerge<S> {
+		void merge(S result, S other);
+	}
+
+	// reads chunk c into the state of the current worker
+	private interface ChunkBody<S> {
+		void read(S state, int c) throws IOException;
+	}
+
+	private static int threads = Integer.getInteger("miner.threads", Runtime.getRuntime().availableProcessors());
+
+	// chunks handed out per worker, so uneven chunks still balance out
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	private static ForkJoinPool pool;
+
+	// a byte range and how many of its baskets to read (dataSetSize, same meaning as BasketReader.read)
+	private static class Chunk {
+		final long start;
+		final long end;
+		final double dataSetSize;
+
+		Chunk(long start, long end, double dataSetSize){
+			this.start = start;
+			this.end = end;
+			this.dataSetSize = dataSetSize;
+		}
+	}
+
+	public static synchronized void set_threads(int threads){
+		if(threads < 1)
+			throw new IllegalArgumentException("Thread count must be at least 1: " + threads);
+		if(threads != PassRunner.threads && pool != null){
+			pool.shutdown();
+			pool = null;
+		}
+		PassRunner.threads = threads;
+	}
+
+	public static int threads(){
+		return threads;
+	}
+
+	// shared worker pool, also used by Son for its partitions
+	public static synchronized ForkJoinPool pool(){
+		if(pool == null)
+			pool = new ForkJoinPool(threads);
+		return pool;
+	}
+
+	// runs one pass over the baskets before the dataSetSize cut-off and returns the merged counters
+	public static PassCounters run(String fileName, double dataSetSize, Supplier<PassCounters> newCounters, PassBody<PassCounters> body) throws IOException{
+		int[] numBaskets = new int[1];
+		PassCounters result = run(fileName, dataSetSize, newCounters, body, PassCounters::merge, numBaskets);
+		result.numBaskets = numBaskets[0];
+		return result;
+	}
+
+	// same as above for any per-worker state, numBaskets[0] is set to what the old loop would have counted
+	public static <S> S run(String fileName, double dataSetSize, Supplier<S> newState, PassBody<S> body, PassMerge<S> merge, int[] numBaskets) throws IOException{
+		return run(fileName, 0, Long.MAX_VALUE, dataSetSize, newState, body, merge, numBaskets);
+	}
+
+	// same as above over the lines of the byte range [start, end) of a text file only, start must begin a line
+	public static <S> S run(String fileName, long start, long end, double dataSetSize, Supplier<S> newState, PassBody<S> body, PassMerge<S> merge, int[] numBaskets) throws IOException{
+		try(RandomAccessFile file = new RandomAccessFile(fileName, "r"); FileChannel channel = file.getChannel()){
+			boolean binary = BinaryBaskets.is_binary(channel);
+			if(binary && (start != 0 || end < channel.size()))
+				throw new IllegalArgumentException("Byte ranges are only supported for text basket files: " + fileName);
+			byte encoding = binary ? BinaryBaskets.read_header(channel).get(5) : 0;
+			List<Chunk> chunks = binary ? split_binary(channel, dataSetSize, numBaskets) : split_text(channel, start, Math.min(end, channel.size()), dataSetSize, numBaskets);
+
+			S result = run_chunks(chunks.size(), newState, (state, c) -> {
+				Chunk chunk = chunks.get(c);
+				BasketReader.BasketConsumer consumer = (basket, length) -> body.accept(state, basket, length);
+				if(binary)
+					BinaryBaskets.read(channel, encoding, chunk.start, chunk.end, chunk.dataSetSize, consumer);
+				else
+					BasketReader.read(channel, chunk.start, chunk.end, chunk.dataSetSize, consumer);
+			}, merge);
+			if(PassMetrics.ENABLED){
+				long bytes = 0;
+				for(Chunk chunk : chunks)
+					bytes += chunk.end - chunk.start;
+				PassMetrics.add("bytes_read", bytes);
+				PassMetrics.add("baskets", numBaskets[0]);
+				PassMetrics.put("chunks", chunks.size());
+			}
+			return result;
+		}
+	}
+
+	// runs one pass over the baskets held by a BasketCache, the counters are the same as a pass over the file
+	public static PassCounters run(BasketCache cache, Supplier<PassCounters> newCounters, PassBody<PassCounters> body) throws IOException{
+		List<BasketBuffer> parts = cache.parts();
+		long total = 0;
+		for(BasketBuffer part : parts)
+			total += part.size();
+		int perChunk = (int)Math.max(1, (total + threads * CHUNKS_PER_THREAD - 1) / (threads * CHUNKS_PER_THREAD));
+		List<int[]> chunks = new ArrayList<int[]>();	// part, first basket, end
+		for(int p = 0; p < parts.size(); p++)
+			for(int from = 0; from < parts.get(p).size(); from += perChunk)
+				chunks.add(new int[]{ p, from, Math.min(parts.get(p).size(), from + perChunk) });
+
+		PassCounters result = run_chunks(chunks.size(), newCounters, (state, c) -> {
+			int[] chunk = chunks.get(c);
+			parts.get(chunk[0]).forEach(chunk[1], chunk[2], (basket, length) -> body.accept(state, basket, length));
+		}, PassCounters::merge);
+		result.numBaskets = cache.num_baskets();
+		if(PassMetrics.ENABLED){
+			result.funnel[0] += cache.pairs_in_baskets();
+			PassMetrics.add("cached_baskets", total);
+			PassMetrics.add("baskets", cache.num_baskets());
+			PassMetrics.put("chunks", chunks.size());
+		}
+		return result;
+	}
+
+	// the workers of a pass, each taking chunks off the queue until none are left, then merged
+	private static <S> S run_chunks(int numChunks, Supplier<S> newState, ChunkBody<S> chunkBody, PassMerge<S> merge) throws IOException{
+		AtomicInteger next = new AtomicInteger();
+		Callable<S> worker = () -> {
+			S state = newState.get();
+			for(int c = next.getAndIncrement(); c < numChunks; c = next.getAndIncrement())
+				chunkBody.read(state, c);
+			return state;
+		};
+
+		if(threads == 1 || numChunks <= 1)
+			return call(worker);
+		List<Callable<S>> workers = new ArrayList<Callable<S>>();
+		for(int t = 0; t < Math.min(threads, numChunks); t++)
+			workers.add(worker);
+		List<Future<S>> done = pool().invokeAll(workers);
+		S result = get(done.get(0));
+		for(int t = 1; t < done.size(); t++)
+			merge.merge(result, get(done.get(t)));
+		return result;
+	}
+
+	// turns the dataSetSize cut-off into the basket limit of each chunk
+	private static List<Chunk> limit_chunks(long[] bounds, int[] lines, double dataSetSize, int[] numBaskets){
+		long total = 0;
+		for(int n : lines)
+			total += n;
+		long cutoff = Math.max(1, (long)Math.ceil(Math.min(dataSetSize, Long.MAX_VALUE)));	// this basket is counted but not read
+		long toRead = Math.min(total, cutoff - 1);
+		numBaskets[0] = (int)(total >= cutoff ? cutoff : total);
+
+		List<Chunk> chunks = new ArrayList<Chunk>();
+		long first = 0;
+		for(int c = 0; c < lines.length && first < toRead; c++){
+			long count = Math.min(lines[c], toRead - first);
+			chunks.add(new Chunk(bounds[c], bounds[c + 1], count == lines[c] ? Double.POSITIVE_INFINITY : count + 1));
+			first += lines[c];
+		}
+		return chunks;
+	}
+
+	private static List<Chunk> split_text(FileChannel channel, long first, long size, double dataSetSize, int[] numBaskets) throws IOException{
+		int parts = (int)Math.max(1, Math.min(threads * CHUNKS_PER_THREAD, (size - first) / 4096));
+		List<Long> starts = new ArrayList<Long>();
+		for(int p = 0; p < parts; p++){
+			long start = (p == 0) ? first : Math.min(size, BasketReader.next_line(channel, first + (size - first) * p / parts));
+			if(starts.isEmpty() || start > starts.get(starts.size() - 1))
+				starts.add(start);
+		}
+		long[] bounds = new long[starts.size() + 1];
+		for(int c = 0; c < starts.size(); c++)
+			bounds[c] = starts.get(c);
+		bounds[starts.size()] = size;
+		if(bounds[starts.size() - 1] == size)	// nothing after the last line break
+			bounds = Arrays.copyOf(bounds, starts.size());
+
+		int[] lines = new int[bounds.length - 1];
+		if(threads == 1 || lines.length == 1){
+			for(int c = 0; c < lines.length; c++)
+				lines[c] = BasketReader.count_lines(channel, bounds[c], bounds[c + 1]);
+		}
+		else {
+			final long[] chunkBounds = bounds;
+			List<Callable<Integer>> counts = new ArrayList<Callable<Integer>>();
+			for(int c = 0; c < lines.length; c++){
+				final int chunk = c;
+				counts.add(() -> BasketReader.count_lines(channel, chunkBounds[chunk], chunkBounds[chunk + 1]));
+			}
+			List<Future<Integer>> done = pool().invokeAll(counts);
+			for(int c = 0; c < lines.length; c++)
+				lines[c] = get(done.get(c));
+		}
+		return limit_chunks(bounds, lines, dataSetSize, numBaskets);
+	}
+
+	private static List<Chunk> split_binary(FileChannel channel, double dataSetSize, int[] numBaskets) throws IOException{
+		ByteBuffer header = BinaryBaskets.read_header(channel);
+		int total = BinaryBaskets.num_baskets(header);
+		long[] index = BinaryBaskets.read_index(channel);
+		int strides = index.length - 1;
+		int parts = Math.max(1, Math.min(threads * CHUNKS_PER_THREAD, strides));
+		int perChunk = (strides + parts - 1) / Math.max(1, parts);
+
+		int numChunks = strides == 0 ? 0 : (strides + perChunk - 1) / perChunk;
+		long[] bounds = new long[numChunks + 1];
+		int[] lines = new int[numChunks];
+		for(int c = 0; c < numChunks; c++){
+			int firstStride = c * perChunk;
+			int lastStride = Math.min(strides, firstStride + perChunk);
+			bounds[c] = index[firstStride];
+			bounds[c + 1] = index[lastStride];
+			lines[c] = Math.min(total, lastStride * BinaryBaskets.INDEX_STRIDE) - firstStride * BinaryBaskets.INDEX_STRIDE;
+		}
+		return limit_chunks(bounds, lines, dataSetSize, numBaskets);
+	}
+
+	private static <T> T call(Callable<T> task) throws IOException{
+		try {
+			return task.call();
+		}
+		catch(IOException | RuntimeException e){
+			throw e;
+		}
+		catch(Exception e){
+			throw new IOException(e);
+		}
+	}
+
+	private static <T> T get(Future<T> future) throws IOException{
+		try {
+			return future.get();
+		}
+		catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+		catch(ExecutionException e){
+			if(e.getCause() instanceof IOException)
+				throw (IOException)e.getCause();
+			if(e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+}
@@ -9,13 +9,14 @@
  * 				consider candidate pairs in frequent buckets when going through the second pass. Then
  * 				compare with support threshold to see if candidate pairs are frequent as well.
  * 
+ * The passes run in Miner (strategy pcy), Son mines its partitions with them too. The approximate
+ * pass of TopPairs is here.
+ * 
  * Author: Angelo Bortolin, 104256682
  * February 17, 2019
  */
 
-import java.util.*;
 import java.io.*;
-import java.util.Map.Entry;
 
 public class Pcy {
 
@@ -27,151 +28,24 @@ public class Pcy {
 			return;
 		}
 		
-		String fileName = args[0];
-		int threshold_percent = Integer.parseInt(args[1]);
-		int dataSetPercentage = Integer.parseInt(args[2]);
-		int numBaskets = 0;
-		
-		BufferedReader br = new BufferedReader(new FileReader(fileName));
-		while(br.ready()){
-			br.readLine();
-			numBaskets++;
-		}
-		br.close();
-		
-		double basketsToUse = numBaskets * ((double)dataSetPercentage / 100);
-		double support = basketsToUse * ((double)threshold_percent / 100);
-		
-		ArrayList<Integer> freq_items_array = new ArrayList<Integer>();
-		HashMap<Integer, Integer> itemCount = new HashMap<Integer, Integer>();
-		HashMap<Integer, Integer> bucketHashTable = new HashMap<Integer, Integer>();
-		final long startTime1 = System.currentTimeMillis();
-		
-		// FIRST PASS
-		bucketHashTable = bucket_hashing(fileName, itemCount, basketsToUse);
-		
-		// between first and second pass, making bitVector
-		int[] bitVector = new int[88162];
-		for(int i = 0; i < bitVector.length; i++){
-			if(bucketHashTable.containsKey(i) && bucketHashTable.get(i) >= support)
-				bitVector[i] = 1;
-			else
-				bitVector[i] = 0;
-		}
-		
-		// list of frequent items
-		System.out.printf("ITEMS\tFREQUENCY\n");
-		itemCount.forEach((key, value)->{
-			if(value > support){
-				freq_items_array.add(key);
-				System.out.printf("{%d}\t%d\n", key, value);
-			}
-		});
-		
-		// number of frequent items
-		System.out.println("NUMBER OF FREQUENT ITEMS: "+ freq_items_array.size());
-			
-		// SECOND PASS
-		HashMap<String, Integer> pairs_returned = new HashMap<String, Integer>();
-		pairs_returned = find_freq_pairs(fileName, freq_items_array, bitVector, basketsToUse);
-		
-		// After the second pass, checking which pairs are frequent
-		Iterator<Entry<String, Integer>> itr = pairs_returned.entrySet().iterator();
-		while (itr.hasNext()){
-			Entry<String, Integer> entry = itr.next();
-			if(entry.getValue() < support)
-				itr.remove();
-		}
-		
-		System.out.printf("\nPAIRS\t\tFREQUENCY\n");
-		
-		pairs_returned.forEach((key, value) -> {
-			System.out.printf("%8s\t%d\n", key, value);
-		});
-		System.out.println("Number of frequent pairs: " + pairs_returned.size());
-		
-		
-		final long endTime = System.currentTimeMillis();
-		System.out.println("\nSupport: " + (int)support);
-		System.out.println("Total execution time: " + (endTime - startTime1));
-		System.out.println("Baskets in dataset: "+ (int)basketsToUse);
-		
-	}
-	
-	// hash function used for buckets
-	public static int pcy_hash_function(int i, int j){ 
-		return (i * j) % 88162;
+		Miner.run(args[0], Integer.parseInt(args[1]), Integer.parseInt(args[2]), Miner.Strategy.pcy(), 2).release();
 	}
 	
-	// FIRST PASS
-	public static HashMap<Integer, Integer> bucket_hashing(String fileName, HashMap<Integer, Integer> itemCount, double dataSetSize) throws FileNotFoundException,IOException{
-		
-		HashMap<Integer, Integer> bucketHashTable = new HashMap<Integer, Integer>();
-		int numBaskets = 0;
-		BufferedReader br = new BufferedReader(new FileReader(fileName));
-		
-		while(br.ready()){
-			String line = br.readLine();
-			if(++numBaskets >= dataSetSize)
-				break;
-			StringTokenizer st = new StringTokenizer(line);
-			Vector<Integer> basket = new Vector<Integer>(); //vector for basket read
-			
-			while(st.hasMoreTokens()){
-				int num = Integer.parseInt(st.nextToken());
-				itemCount.put(num, itemCount.containsKey(num) ? itemCount.get(num) + 1 : 1); // adding 1 to items count
-				basket.add(num); // setting up basket for nested for-loop
-			}
-			
-			int basket_length = basket.size();
-			for(int i = 0; i < basket_length; i++){
-				for(int j = (i + 1); j < basket_length; j++){
-					int hashReturn = pcy_hash_function(basket.elementAt(i),basket.elementAt(j));
-					bucketHashTable.put(hashReturn, bucketHashTable.containsKey(hashReturn) ? bucketHashTable.get(hashReturn) + 1 : 1);
+	// APPROXIMATE PASS, streams every pair into a Count-Min sketch keeping about k heavy hitters, one
+	// sketch per worker merged at the end. Needs no support threshold and only one pass.
+	public static CountMinSketch find_top_pairs(String fileName, int k, int width, int depth, double dataSetSize) throws IOException{
+		
+		// each worker keeps a few times k pairs, so a pair spread thinly over the chunks still makes it
+		int heavyCapacity = (int)Math.min(Integer.MAX_VALUE / 4, 4L * k);
+		return PassRunner.run(fileName, dataSetSize, () -> new CountMinSketch(width, depth, 42, heavyCapacity), (local, basket, basket_length) -> {
+			// each distinct item once, so a repeated item is neither a pair with itself nor counted twice
+			int distinct = BasketReader.distinct(basket, basket_length);
+			for(int i = 0; i < distinct; i++){
+				for(int j = (i + 1); j < distinct; j++){
+					local.add(basket[i], basket[j]);
 				}
-			}	
-		}
-		br.close();
-		return bucketHashTable;
-		
-	}
-	
-	// SECOND PASS
-	public static HashMap<String, Integer> find_freq_pairs(String fileName, ArrayList<Integer> freq_items_array, int[] bitVector, double dataSetSize) throws FileNotFoundException,IOException{
-		
-		BufferedReader br = new BufferedReader(new FileReader(fileName));
-		HashMap<String, Integer> freq_pair = new HashMap<String, Integer>();
-		int numBaskets = 0;
-		
-		while(br.ready()){
-			String line = br.readLine();
-			if(++numBaskets >= dataSetSize)
-				break;
-			StringTokenizer st = new StringTokenizer(line);
-			Vector<Integer> basket = new Vector<Integer>(); //vector for basket read in
-			
-			while(st.hasMoreTokens()){
-				int num = Integer.parseInt(st.nextToken());
-				basket.add(num);			
 			}
-			
-			int basket_length = basket.size();
-			for(int i = 0; i < basket_length; i++){
-				for(int j = (i + 1); j < basket_length; j++){
-					
-					// checks if pairs map to a frequent bucket in bit vector, as well as if each item is a frequent item
-					if(bitVector[pcy_hash_function(basket.elementAt(i),basket.elementAt(j))] == 1 && freq_items_array.contains(basket.get(i)) && freq_items_array.contains(basket.get(j))){
-						String pair = "{"+basket.get(i)+","+basket.get(j)+"}";
-//						System.out.println(pair); //DEBUG LINE
-						freq_pair.put(pair, (freq_pair.containsKey(pair)) ? freq_pair.get(pair) + 1 : 1);
-						
-					}	
-				}
-			}		
-		}
-		br.close();
-		
-		return freq_pair;
+		}, CountMinSketch::merge, new int[1]);
 	}
 
 }
@@ -0,0 +1,341 @@
+/*
+ * Result Sink -- Where the Frequent Itemsets of a Run Are Written
+ *
+ * The miners hand over whole result sets (the frequent items, a PairCounter, an ItemsetTrie, a ranked
+ * list of pairs) once
+ * mining is done, instead of printing entry by entry, and the time spent writing them is kept apart
+ * so it can be reported separately from the mining time (see finish()). Chosen with the system
+ * property miner.output:
+ *
+ * text:        (default) the usual console format, through one 64 KB buffer instead of a
+ * 				synchronized printf per entry.
+ * count:       only the headers and counts of the console format, no entries.
+ * tsv:<file>   one line per itemset: the items separated by spaces, a tab, the count. The headers
+ * csv:<file>   still go to the console. csv uses a comma instead of the tab.
+ * binary:<file> magic "FRQS", then per itemset: the number of items, the item ids and the count, all
+ * 				4 byte big-endian ints, until the end of the file.
+ *
+ * With miner.output.top=N only the N itemsets with the highest counts of each result set are
+ * written, highest first (ties in the usual order).
+ *
+ * Association rules are all written, in the order they were found: on the console as
+ * "{X} -> {Y}" with count, confidence, lift and interest, in tsv and csv as a row of the antecedent,
+ * " => ", the consequent and the four figures, and in binary as -1, the antecedent length and items,
+ * the consequent length and items, the count, then the three figures as 8 byte doubles.
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+public abstract class ResultSink {
+
+	public static final int MAGIC = 0x46525153;	// "FRQS"
+
+	private static ResultSink current;
+
+	private final int top = Integer.getInteger("miner.output.top", 0);
+	private long nanos;
+
+	// the sink of this run, opened from miner.output on first use
+	public static synchronized ResultSink out() throws IOException{
+		if(current == null)
+			current = open(System.getProperty("miner.output", "text"));
+		return current;
+	}
+
+	// flushes and closes the sink of this run, returns the ms spent writing results; the next out() opens a new one
+	public static synchronized long finish() throws IOException{
+		if(current == null)
+			return 0;
+		ResultSink sink = current;
+		current = null;
+		long start = System.nanoTime();
+		sink.close();
+		sink.nanos += System.nanoTime() - start;
+		return sink.nanos / 1000000;
+	}
+
+	public static ResultSink open(String spec) throws IOException{
+		int colon = spec.indexOf(':');
+		String kind = (colon < 0) ? spec : spec.substring(0, colon);
+		String path = (colon < 0) ? null : spec.substring(colon + 1);
+		if((path == null) != (kind.equals("text") || kind.equals("count")))
+			throw new IllegalArgumentException("Bad miner.output: " + spec + " (text, count, tsv:<file>, csv:<file> or binary:<file>)");
+		switch(kind){
+		case "text":	return new Text(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16), true);
+		case "count":	return new Text(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16), false);
+		case "tsv":		return new Delimited(path, '\t');
+		case "csv":		return new Delimited(path, ',');
+		case "binary":	return new Binary(path);
+		default:		throw new IllegalArgumentException("Unknown miner.output: " + spec + " (text, count, tsv:<file>, csv:<file> or binary:<file>)");
+		}
+	}
+
+	// a header or summary line of the console format
+	public final void header(String line) throws IOException{
+		long start = System.nanoTime();
+		write_header(line);
+		nanos += System.nanoTime() - start;
+	}
+
+	// frequent items with their first pass counts
+	public final void items(FrequentItems freq_items) throws IOException{
+		long start = System.nanoTime();
+		Selection selection = new Selection();
+		for(int idx = 0; idx < freq_items.size(); idx++)
+			selection.accept(new int[]{ freq_items.item(idx) }, 1, freq_items.count(idx));
+		selection.flush();
+		nanos += System.nanoTime() - start;
+	}
+
+	// pairs of compact indices of freq_items, or of item ids when freq_items is null
+	public final void pairs(PairCounter pairs, FrequentItems freq_items) throws IOException{
+		long start = System.nanoTime();
+		Selection selection = new Selection();
+		int[] pair = new int[2];
+		pairs.forEach((i, j, count) -> {
+			pair[0] = (freq_items == null) ? i : freq_items.item(i);
+			pair[1] = (freq_items == null) ? j : freq_items.item(j);
+			selection.accept(pair, 2, count);
+		});
+		selection.flush();
+		nanos += System.nanoTime() - start;
+	}
+
+	// pairs of item ids packed by PairCounter.pack, in the given order, with counts[p] for pairs[p]
+	public final void pairs(long[] pairs, int[] counts) throws IOException{
+		long start = System.nanoTime();
+		Selection selection = new Selection();
+		int[] pair = new int[2];
+		for(int p = 0; p < pairs.length; p++){
+			pair[0] = PairCounter.first(pairs[p]);
+			pair[1] = PairCounter.second(pairs[p]);
+			selection.accept(pair, 2, counts[p]);
+		}
+		selection.flush();
+		nanos += System.nanoTime() - start;
+	}
+
+	// itemsets of compact indices of freq_items
+	public final void itemsets(ItemsetTrie itemsets, FrequentItems freq_items) throws IOException{
+		long start = System.nanoTime();
+		Selection selection = new Selection();
+		int[] ids = new int[itemsets.k()];
+		itemsets.forEach((itemset, count) -> {
+			for(int d = 0; d < itemset.length; d++)
+				ids[d] = freq_items.item(itemset[d]);
+			selection.accept(ids, itemset.length, count);
+		});
+		selection.flush();
+		nanos += System.nanoTime() - start;
+	}
+
+	// association rules, items as compact indices of freq_items
+	public final void rules(AssociationRules rules, FrequentItems freq_items) throws IOException{
+		long start = System.nanoTime();
+		IOException[] failed = new IOException[1];
+		rules.forEach((items, antecedent, length, count, confidence, lift, interest) -> {
+			if(failed[0] != null)
+				return;
+			for(int d = 0; d < length; d++)
+				items[d] = freq_items.item(items[d]);
+			try {
+				write_rule(items, antecedent, length, count, confidence, lift, interest);
+			}
+			catch(IOException e){
+				failed[0] = e;
+			}
+		});
+		nanos += System.nanoTime() - start;
+		if(failed[0] != null)
+			throw failed[0];
+	}
+
+	// top N entries, lowest count first, and the later itemset first on a tie
+	private static int compare_entries(int[] a, int[] b){
+		if(a[0] != b[0])
+			return Integer.compare(a[0], b[0]);
+		return Integer.compare(b[1], a[1]);
+	}
+
+	protected abstract void write_header(String line) throws IOException;
+
+	protected abstract void write(int[] itemset, int length, int count) throws IOException;
+
+	protected abstract void write_rule(int[] items, int antecedent, int length, int count, double confidence, double lift, double interest) throws IOException;
+
+	protected abstract void close() throws IOException;
+
+	// writes straight through, or keeps the top N by count until flush(); holds the first write error
+	private class Selection {
+		private final PriorityQueue<int[]> heap = (top > 0) ? new PriorityQueue<int[]>(top + 1, ResultSink::compare_entries) : null;
+		private int order;
+		private IOException failed;
+
+		void accept(int[] itemset, int length, int count){
+			if(failed != null)
+				return;
+			if(heap == null){
+				try {
+					write(itemset, length, count);
+				}
+				catch(IOException e){
+					failed = e;
+				}
+				return;
+			}
+			// kept as { count, order, items... }, order breaks ties so the earlier itemset wins
+			int[] entry = new int[length + 2];
+			entry[0] = count;
+			entry[1] = order++;
+			System.arraycopy(itemset, 0, entry, 2, length);
+			heap.add(entry);
+			if(heap.size() > top)
+				heap.poll();
+		}
+
+		void flush() throws IOException{
+			if(failed != null)
+				throw failed;
+			if(heap == null)
+				return;
+			List<int[]> best = new ArrayList<int[]>(heap);
+			best.sort((a, b) -> compare_entries(b, a));
+			for(int[] entry : best)
+				write(Arrays.copyOfRange(entry, 2, entry.length), entry.length - 2, entry[0]);
+		}
+	}
+
+	// TEXT and COUNT
+	private static class Text extends ResultSink {
+		private final Writer out;
+		private final boolean entries;
+
+		Text(Writer out, boolean entries){
+			this.out = out;
+			this.entries = entries;
+		}
+
+		protected void write_header(String line) throws IOException{
+			out.write(line);
+			out.write('\n');
+		}
+
+		protected void write(int[] itemset, int length, int count) throws IOException{
+			if(!entries)
+				return;
+			if(length == 1){
+				out.write("{" + itemset[0] + "}\t" + count + "\n");
+				return;
+			}
+			StringBuilder sb = new StringBuilder("{");
+			for(int d = 0; d < length; d++)
+				sb.append(d == 0 ? "" : ",").append(itemset[d]);
+			out.write(String.format("%8s\t%d\n", sb.append("}"), count));
+		}
+
+		protected void write_rule(int[] items, int antecedent, int length, int count, double confidence, double lift, double interest) throws IOException{
+			if(!entries)
+				return;
+			StringBuilder sb = new StringBuilder("{");
+			for(int d = 0; d < length; d++)
+				sb.append(d == 0 ? "" : (d == antecedent) ? "} -> {" : ",").append(items[d]);
+			out.write(String.format(Locale.ROOT, "%s}\t%d\t%.4f\t\t%.4f\t%.4f\n", sb, count, confidence, lift, interest));
+		}
+
+		// System.out itself stays open
+		protected void close() throws IOException{
+			out.flush();
+		}
+	}
+
+	// TSV and CSV
+	private static class Delimited extends ResultSink {
+		private final Writer out;
+		private final char separator;
+
+		Delimited(String path, char separator) throws IOException{
+			this.out = new BufferedWriter(new FileWriter(path), 1 << 16);
+			this.separator = separator;
+			out.write("itemset" + separator + "count\n");
+		}
+
+		protected void write_header(String line){
+			System.out.println(line);
+		}
+
+		protected void write(int[] itemset, int length, int count) throws IOException{
+			for(int d = 0; d < length; d++){
+				if(d > 0)
+					out.write(' ');
+				out.write(Integer.toString(itemset[d]));
+			}
+			out.write(separator);
+			out.write(Integer.toString(count));
+			out.write('\n');
+		}
+
+		protected void write_rule(int[] items, int antecedent, int length, int count, double confidence, double lift, double interest) throws IOException{
+			for(int d = 0; d < length; d++){
+				if(d > 0)
+					out.write((d == antecedent) ? " => " : " ");
+				out.write(Integer.toString(items[d]));
+			}
+			out.write(String.format(Locale.ROOT, "%c%d%c%.6f%c%.6f%c%.6f\n", separator, count, separator, confidence, separator, lift, separator, interest));
+		}
+
+		protected void close() throws IOException{
+			out.close();
+		}
+	}
+
+	// BINARY
+	private static class Binary extends ResultSink {
+		private final DataOutputStream out;
+
+		Binary(String path) throws IOException{
+			this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16));
+			out.writeInt(MAGIC);
+		}
+
+		protected void write_header(String line){
+			System.out.println(line);
+		}
+
+		protected void write(int[] itemset, int length, int count) throws IOException{
+			out.writeInt(length);
+			for(int d = 0; d < length; d++)
+				out.writeInt(itemset[d]);
+			out.writeInt(count);
+		}
+
+		protected void write_rule(int[] items, int antecedent, int length, int count, double confidence, double lift, double interest) throws IOException{
+			out.writeInt(-1);
+			out.writeInt(antecedent);
+			for(int d = 0; d < antecedent; d++)
+				out.writeInt(items[d]);
+			out.writeInt(length - antecedent);
+			for(int d = antecedent; d < length; d++)
+				out.writeInt(items[d]);
+			out.writeInt(count);
+			out.writeDouble(confidence);
+			out.writeDouble(lift);
+			out.writeDouble(interest);
+		}
+
+		protected void close() throws IOException{
+			out.close();
+		}
+	}
+}
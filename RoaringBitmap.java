@@ -0,0 +1,243 @@
+/*
+ * Roaring Bitmap -- Compressed Sets of Basket Ids for the Vertical Layout of Eclat
+ *
+ * The ids are split on their high 16 bits into containers of up to 65536 ids each, kept sorted by
+ * that key. A container holds its low 16 bits in one of two ways:
+ *
+ * ARRAY:       A sorted char[] of at most ARRAY_MAX ids (2 bytes per id), for sparse ranges.
+ * BITMAP:      A long[1024] with one bit per id (8 KB), for dense ranges.
+ *
+ * Intersections go container by container over the keys both sides have: two arrays by a merge (or
+ * by binary search of the smaller in the larger when their sizes are far apart), an array against a
+ * bitmap by testing bits, two bitmaps by an AND of the words. and_cardinality() only counts, and()
+ * builds the result, turning bitmaps of ARRAY_MAX ids or less back into arrays. Bitmaps are
+ * read-only once built, so any number of threads can intersect them at the same time.
+ */
+
+import java.util.Arrays;
+
+public class RoaringBitmap {
+
+	private static final int ARRAY_MAX = 4096;
+	private static final int BITMAP_WORDS = 1 << 10;
+	private static final int GALLOP_RATIO = 32;	// sizes further apart than this use binary search
+
+	private final char[] keys;
+	private final char[][] arrays;	// ARRAY container of each key, or null
+	private final long[][] bitmaps;	// BITMAP container of each key, or null
+	private final int[] cardinalities;
+	private final int size;
+	private final int cardinality;
+
+	private RoaringBitmap(char[] keys, char[][] arrays, long[][] bitmaps, int[] cardinalities, int size){
+		this.keys = keys;
+		this.arrays = arrays;
+		this.bitmaps = bitmaps;
+		this.cardinalities = cardinalities;
+		this.size = size;
+		int total = 0;
+		for(int c = 0; c < size; c++)
+			total += cardinalities[c];
+		this.cardinality = total;
+	}
+
+	// the bitmap of values[0..length-1], sorted ascending without duplicates
+	public static RoaringBitmap from_sorted(int[] values, int length){
+		int containers = 0;
+		for(int k = 0; k < length; k++)
+			if(k == 0 || (values[k] >>> 16) != (values[k - 1] >>> 16))
+				containers++;
+		char[] keys = new char[containers];
+		char[][] arrays = new char[containers][];
+		long[][] bitmaps = new long[containers][];
+		int[] cardinalities = new int[containers];
+
+		int c = 0;
+		for(int start = 0; start < length; c++){
+			int key = values[start] >>> 16;
+			int end = start;
+			while(end < length && (values[end] >>> 16) == key)
+				end++;
+			keys[c] = (char)key;
+			cardinalities[c] = end - start;
+			if(end - start <= ARRAY_MAX){
+				char[] array = new char[end - start];
+				for(int k = start; k < end; k++)
+					array[k - start] = (char)values[k];
+				arrays[c] = array;
+			}
+			else {
+				long[] bitmap = new long[BITMAP_WORDS];
+				for(int k = start; k < end; k++)
+					bitmap[(values[k] & 0xFFFF) >>> 6] |= 1L << values[k];
+				bitmaps[c] = bitmap;
+			}
+			start = end;
+		}
+		return new RoaringBitmap(keys, arrays, bitmaps, cardinalities, containers);
+	}
+
+	public int cardinality(){
+		return cardinality;
+	}
+
+	// memory held by the containers
+	public long bytes(){
+		long total = 6L * size;
+		for(int c = 0; c < size; c++)
+			total += (arrays[c] != null) ? 2L * arrays[c].length : 8L * BITMAP_WORDS;
+		return total;
+	}
+
+	// number of ids in both bitmaps, without building the intersection
+	public int and_cardinality(RoaringBitmap other){
+		int total = 0;
+		for(int a = 0, b = 0; a < size && b < other.size; ){
+			if(keys[a] < other.keys[b]){
+				a++;
+			}
+			else if(keys[a] > other.keys[b]){
+				b++;
+			}
+			else {
+				total += and_cardinality(this, a, other, b);
+				a++;
+				b++;
+			}
+		}
+		return total;
+	}
+
+	private static int and_cardinality(RoaringBitmap x, int a, RoaringBitmap y, int b){
+		if(x.bitmaps[a] != null && y.bitmaps[b] != null){
+			long[] left = x.bitmaps[a];
+			long[] right = y.bitmaps[b];
+			int count = 0;
+			for(int w = 0; w < BITMAP_WORDS; w++)
+				count += Long.bitCount(left[w] & right[w]);
+			return count;
+		}
+		if(x.bitmaps[a] != null)
+			return and_cardinality(y.arrays[b], x.bitmaps[a]);
+		if(y.bitmaps[b] != null)
+			return and_cardinality(x.arrays[a], y.bitmaps[b]);
+		return and_arrays(x.arrays[a], y.arrays[b], null);
+	}
+
+	private static int and_cardinality(char[] array, long[] bitmap){
+		int count = 0;
+		for(char low : array)
+			count += (int)((bitmap[low >>> 6] >>> low) & 1L);
+		return count;
+	}
+
+	// intersection of two sorted arrays, written to out when it is not null, returns its size
+	private static int and_arrays(char[] left, char[] right, char[] out){
+		if(left.length > right.length){
+			char[] t = left; left = right; right = t;
+		}
+		int n = 0;
+		if((long)left.length * GALLOP_RATIO < right.length){
+			int from = 0;
+			for(char low : left){
+				int pos = Arrays.binarySearch(right, from, right.length, low);
+				if(pos >= 0){
+					if(out != null)
+						out[n] = low;
+					n++;
+					from = pos + 1;
+				}
+				else {
+					from = -pos - 1;
+				}
+				if(from == right.length)
+					break;
+			}
+			return n;
+		}
+		for(int i = 0, j = 0; i < left.length && j < right.length; ){
+			if(left[i] < right[j]){
+				i++;
+			}
+			else if(left[i] > right[j]){
+				j++;
+			}
+			else {
+				if(out != null)
+					out[n] = left[i];
+				n++;
+				i++;
+				j++;
+			}
+		}
+		return n;
+	}
+
+	// the ids in both bitmaps
+	public RoaringBitmap and(RoaringBitmap other){
+		int most = Math.min(size, other.size);
+		char[] outKeys = new char[most];
+		char[][] outArrays = new char[most][];
+		long[][] outBitmaps = new long[most][];
+		int[] outCardinalities = new int[most];
+		int n = 0;
+		for(int a = 0, b = 0; a < size && b < other.size; ){
+			if(keys[a] < other.keys[b]){
+				a++;
+				continue;
+			}
+			if(keys[a] > other.keys[b]){
+				b++;
+				continue;
+			}
+			int count;
+			if(bitmaps[a] != null && other.bitmaps[b] != null){
+				long[] bitmap = new long[BITMAP_WORDS];
+				count = 0;
+				for(int w = 0; w < BITMAP_WORDS; w++){
+					bitmap[w] = bitmaps[a][w] & other.bitmaps[b][w];
+					count += Long.bitCount(bitmap[w]);
+				}
+				if(count > ARRAY_MAX)
+					outBitmaps[n] = bitmap;
+				else if(count > 0)
+					outArrays[n] = to_array(bitmap, count);
+			}
+			else if(bitmaps[a] != null || other.bitmaps[b] != null){
+				char[] array = (bitmaps[a] != null) ? other.arrays[b] : arrays[a];
+				long[] bitmap = (bitmaps[a] != null) ? bitmaps[a] : other.bitmaps[b];
+				char[] out = new char[array.length];
+				count = 0;
+				for(char low : array)
+					if(((bitmap[low >>> 6] >>> low) & 1L) != 0)
+						out[count++] = low;
+				outArrays[n] = Arrays.copyOf(out, count);
+			}
+			else {
+				char[] out = new char[Math.min(arrays[a].length, other.arrays[b].length)];
+				count = and_arrays(arrays[a], other.arrays[b], out);
+				outArrays[n] = Arrays.copyOf(out, count);
+			}
+			if(count > 0){
+				outKeys[n] = keys[a];
+				outCardinalities[n] = count;
+				n++;
+			}
+			else {
+				outArrays[n] = null;
+			}
+			a++;
+			b++;
+		}
+		return new RoaringBitmap(outKeys, outArrays, outBitmaps, outCardinalities, n);
+	}
+
+	private static char[] to_array(long[] bitmap, int count){
+		char[] array = new char[count];
+		int n = 0;
+		for(int w = 0; w < BITMAP_WORDS; w++)
+			for(long word = bitmap[w]; word != 0; word &= word - 1)
+				array[n++] = (char)((w << 6) + Long.numberOfTrailingZeros(word));
+		return array;
+	}
+}
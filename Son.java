@@ -0,0 +1,198 @@
+/*
+ * SON Algorithm -- Finding Frequent Pairs in Partitions That Fit in Memory
+ *
+ * FIRST PASS:  The file is read once and cut into partitions of at most the given number of MB. Each
+ * 				partition is mined in memory with Pcy or Multihash (Miner.mine_partition) at the same support percentage,
+ * 				scaled down to the size of the partition. A pair that is frequent in the whole file
+ * 				has to be frequent in at least one partition, so the union of the pairs found in the
+ * 				partitions is a set of candidates that misses nothing. Partitions are mined in
+ * 				parallel while the next ones are being read, with only a few held in memory at once.
+ * SECOND PASS: The items and the candidate pairs are counted over the whole file, and the ones that
+ * 				reach the real support threshold are printed. The false positives of the first pass
+ * 				drop out here.
+ *
+ * Meant for files that are too large for the counts of Pcy or Multihash to fit in memory at once.
+ * Output has the same format as Pcy.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+public class Son {
+
+	public static void main(String[] args) throws Exception {
+
+		if(args.length < 3 || args.length > 5){
+			System.out.println("Usage of Son:\t<file> <support threshold %> <dataset size %> [pcy|multihash] [partition size MB, default 64]\nex.\t\t$ retail.txt 1 100 pcy 16");
+			return;
+		}
+
+		String fileName = args[0];
+		int threshold_percent = Integer.parseInt(args[1]);
+		int dataSetPercentage = Integer.parseInt(args[2]);
+		String algorithm = (args.length >= 4) ? args[3] : "pcy";
+		double partitionMB = (args.length == 5) ? Double.parseDouble(args[4]) : 64;
+		if(!algorithm.equals("pcy") && !algorithm.equals("multihash")){
+			System.out.println("Unknown algorithm: " + algorithm + " (pcy or multihash)");
+			return;
+		}
+		int numBaskets = BasketReader.count_baskets(fileName);
+
+		double basketsToUse = numBaskets * ((double)dataSetPercentage / 100);
+		double support = basketsToUse * ((double)threshold_percent / 100);
+
+		final long startTime1 = System.currentTimeMillis();
+
+		// FIRST PASS
+		int[] numPartitions = new int[1];
+		PairCounter candidates = find_candidate_pairs(fileName, algorithm, (double)threshold_percent / 100, (long)(partitionMB * 1024 * 1024), basketsToUse, numPartitions);
+
+		// SECOND PASS
+		PassCounters counters = count_candidates(fileName, candidates, basketsToUse);
+
+		// list of frequent items
+		FrequentItems freq_items = FrequentItems.from_counts(counters, support);
+		ResultSink sink = ResultSink.out();
+		sink.header("ITEMS\tFREQUENCY");
+		sink.items(freq_items);
+
+		// number of frequent items
+		sink.header("NUMBER OF FREQUENT ITEMS: "+ freq_items.size());
+
+		// After the second pass, checking which candidates are frequent
+		PairCounter pairs_returned = counters.pairs;
+		pairs_returned.removeBelow(support);
+
+		sink.header("\nPAIRS\t\tFREQUENCY");
+		sink.pairs(pairs_returned, null);
+		sink.header("Number of frequent pairs: " + pairs_returned.size());
+		long outputTime = ResultSink.finish();
+
+		final long endTime = System.currentTimeMillis();
+		System.out.println("\nSupport: " + (int)support);
+		System.out.println("Partitions: " + numPartitions[0]);
+		System.out.println("Candidate pairs: " + candidates.size());
+		System.out.println("Total execution time: " + (endTime - startTime1 - outputTime));
+		System.out.println("Output time: " + outputTime);
+		System.out.println("Baskets in dataset: "+ (int)basketsToUse);
+	}
+
+	// FIRST PASS, union of the pairs (item ids, smaller first) frequent in some partition
+	public static PairCounter find_candidate_pairs(String fileName, String algorithm, double threshold, long partitionBytes, double dataSetSize, int[] numPartitions) throws IOException{
+
+		// bounds the partitions held in memory: one per worker plus the one being read
+		Semaphore inFlight = new Semaphore(PassRunner.threads());
+		List<Future<PairCounter>> mined = new ArrayList<Future<PairCounter>>();
+		BasketBuffer[] partition = { new BasketBuffer() };
+
+		try {
+			BasketReader.read(fileName, dataSetSize, (basket, basket_length) -> {
+				partition[0].add(basket, basket_length);
+				if(partition[0].bytes() >= partitionBytes){
+					mined.add(submit(partition[0], algorithm, threshold, inFlight));
+					partition[0] = new BasketBuffer();
+				}
+			});
+			if(partition[0].size() > 0 || mined.isEmpty())
+				mined.add(submit(partition[0], algorithm, threshold, inFlight));
+		}
+		catch(InterruptedRead e){
+			Thread.currentThread().interrupt();
+			throw new IOException(e.getCause());
+		}
+
+		numPartitions[0] = mined.size();
+		PairCounter candidates = PairCounter.hashed(1024);
+		for(Future<PairCounter> result : mined){
+			get(result).forEach((i, j, count) -> {
+				int lo = Math.min(i, j);
+				int hi = Math.max(i, j);
+				if(candidates.get(lo, hi) == 0)
+					candidates.increment(lo, hi);
+			});
+		}
+		return candidates;
+	}
+
+	// thrown out of the reader callback when waiting for a free partition slot is interrupted
+	private static class InterruptedRead extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		InterruptedRead(InterruptedException cause){
+			super(cause);
+		}
+	}
+
+	private static Future<PairCounter> submit(BasketBuffer partition, String algorithm, double threshold, Semaphore inFlight){
+		try {
+			inFlight.acquire();
+		}
+		catch(InterruptedException e){
+			throw new InterruptedRead(e);
+		}
+		// same percentage as the whole file, scaled to the partition
+		double localSupport = partition.size() * threshold;
+		return PassRunner.pool().submit(() -> {
+			try {
+				return Miner.mine_partition(partition, localSupport, algorithm.equals("multihash") ? Miner.Strategy.multihash(Multihash.NUM_TABLES) : Miner.Strategy.pcy());
+			}
+			finally {
+				inFlight.release();
+			}
+		});
+	}
+
+	// SECOND PASS, counts every item and every candidate pair over the whole file
+	public static PassCounters count_candidates(String fileName, PairCounter candidates, double dataSetSize) throws IOException{
+
+		// items that show up in some candidate, the rest of the basket can be skipped for pairs
+		int[] maxItem = { -1 };
+		candidates.forEach((i, j, count) -> maxItem[0] = Math.max(maxItem[0], j));
+		// ids past the table (see PassCounters.DENSE_ITEMS) are kept and left to the candidate lookup
+		boolean[] inCandidate = new boolean[(int)Math.min(maxItem[0] + 1L, PassCounters.DENSE_ITEMS)];
+		candidates.forEach((i, j, count) -> {
+			if(i < inCandidate.length)
+				inCandidate[i] = true;
+			if(j < inCandidate.length)
+				inCandidate[j] = true;
+		});
+
+		int expectedPairs = candidates.size();
+		return PassRunner.run(fileName, dataSetSize, () -> new PassCounters(true, new int[0], PairCounter.hashed(expectedPairs)), (local, basket, basket_length) -> {
+			int cand_length = 0;
+			int distinct = local.count_items(basket, basket_length); // adding 1 to items count
+			for(int k = 0; k < distinct; k++){
+				int item = basket[k];
+				if((item < inCandidate.length) ? inCandidate[item] : item <= maxItem[0])
+					basket[cand_length++] = item;
+			}
+			for(int i = 0; i < cand_length; i++){
+				for(int j = (i + 1); j < cand_length; j++){
+					int lo = Math.min(basket[i], basket[j]);
+					int hi = Math.max(basket[i], basket[j]);
+					if(candidates.get(lo, hi) != 0)
+						local.pairs.increment(lo, hi);
+				}
+			}
+		});
+	}
+
+	private static <T> T get(Future<T> future) throws IOException{
+		try {
+			return future.get();
+		}
+		catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+		catch(ExecutionException e){
+			if(e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+}
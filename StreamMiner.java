@@ -0,0 +1,238 @@
+/*
+ * Stream Miner -- Frequent Items and Pairs Over an Unbounded Basket Feed
+ *
+ * INGEST:      Baskets are read one line at a time from stdin ("-") or a file, which can be followed
+ * 				like tail -f so baskets appended later are picked up. Every item and every pair of a
+ * 				basket goes into a LossyCounter, so memory stays bounded however long the feed runs
+ * 				and nothing already read is ever read again.
+ * BUCKET END:  Every ceil(1 / error) baskets the entries that cannot be frequent are dropped. With a
+ * 				half-life, all counts are also halved every half-life baskets, so old baskets fade
+ * 				out and the counts follow a decaying window of the feed.
+ * EMIT:        An item or pair is frequent when its count reaches (support - error) * N, N being the
+ * 				(decayed) number of baskets so far. It is printed with a "+" as soon as it gets there,
+ * 				and with a "-" at the end of a bucket where it has fallen below again. Counts are at
+ * 				most error * N below the true counts. Nothing is emitted during the first bucket.
+ *
+ * When the feed ends (not when following), the frequent items and pairs are printed in the format
+ * of Pcy, with the lossy counts.
+ */
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+public class StreamMiner {
+
+	// how often a followed file is checked for new baskets
+	private static final long POLL_MILLIS = 200;
+
+	private final double support;		// fraction of the baskets
+	private final double error;
+	private final int bucketWidth;
+	private final long halfLife;		// 0 = no decay
+	private final LossyCounter items = new LossyCounter();
+	private final LossyCounter pairs = new LossyCounter();
+	private long seen;			// baskets read
+	private double n;			// decayed basket count
+
+	public StreamMiner(double support, double error, long halfLife){
+		if(error <= 0 || error >= support)
+			throw new IllegalArgumentException("Error must be above 0 and below the support: " + error);
+		this.support = support;
+		this.error = error;
+		this.bucketWidth = (int)Math.ceil(1 / error);
+		// halving on a bucket end keeps the buckets aligned
+		this.halfLife = (halfLife <= 0) ? 0 : ((halfLife + bucketWidth - 1) / bucketWidth) * bucketWidth;
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		if(args.length < 2 || args.length > 5){
+			System.out.println("Usage of StreamMiner:\t<file or - for stdin> <support threshold %> [error %, default support / 10] [half-life in baskets, 0 = no decay] [follow]\nex.\t\t$ - 1 0.1 100000");
+			return;
+		}
+
+		String fileName = args[0];
+		double threshold_percent = Double.parseDouble(args[1]);
+		double error_percent = (args.length >= 3) ? Double.parseDouble(args[2]) : threshold_percent / 10;
+		long halfLife = (args.length >= 4) ? Long.parseLong(args[3]) : 0;
+		boolean follow = (args.length == 5) && args[4].equals("follow");
+
+		final long startTime1 = System.currentTimeMillis();
+
+		StreamMiner miner = new StreamMiner(threshold_percent / 100, error_percent / 100, halfLife);
+		try(InputStream in = fileName.equals("-") ? System.in : new FileInputStream(fileName)){
+			read_baskets(in, follow, miner::add);
+		}
+		miner.print();
+
+		final long endTime = System.currentTimeMillis();
+		System.out.println("\nSupport: " + (int)miner.threshold());
+		System.out.println("Entries held: " + miner.items.size() + " items, " + miner.pairs.size() + " pairs (" + (miner.items.bytes() + miner.pairs.bytes()) + " bytes)");
+		System.out.println("Total execution time: " + (endTime - startTime1));
+		System.out.println("Baskets in stream: " + miner.seen);
+	}
+
+	// count an item or pair needs to be frequent right now
+	public double threshold(){
+		return (support - error) * n;
+	}
+
+	private int bucket(){
+		return (int)Math.ceil(n / bucketWidth);
+	}
+
+	// INGEST, one basket of the feed
+	public void add(int[] basket, int basket_length){
+		seen++;
+		n++;
+		int bucket = bucket();
+		boolean warm = seen > bucketWidth;
+		double threshold = threshold();
+
+		// each distinct item once and in increasing order, so a repeated item never pairs with itself
+		basket_length = BasketReader.distinct(basket, basket_length);
+		for(int k = 0; k < basket_length; k++){
+			int slot = items.add(basket[k], bucket);
+			if(warm && !items.reported(slot) && items.count(slot) >= threshold){
+				items.set_reported(slot, true);
+				System.out.printf("+{%d}\t%d\n", basket[k], items.count(slot));
+			}
+		}
+		for(int i = 0; i < basket_length; i++){
+			for(int j = (i + 1); j < basket_length; j++){
+				int lo = basket[i];
+				int hi = basket[j];
+				int slot = pairs.add(PairCounter.pack(lo, hi), bucket);
+				if(warm && !pairs.reported(slot) && pairs.count(slot) >= threshold){
+					pairs.set_reported(slot, true);
+					System.out.printf("+%8s\t%d\n", "{"+lo+","+hi+"}", pairs.count(slot));
+				}
+			}
+		}
+
+		if(seen % bucketWidth == 0)
+			end_bucket();
+	}
+
+	// BUCKET END
+	private void end_bucket(){
+		if(halfLife != 0 && seen % halfLife == 0){
+			n /= 2;
+			items.halve();
+			pairs.halve();
+		}
+		double threshold = threshold();
+		items.forEach(slot -> {
+			boolean frequent = items.count(slot) >= threshold;
+			if(frequent != items.reported(slot)){
+				items.set_reported(slot, frequent);
+				System.out.printf("%s{%d}\t%d\n", frequent ? "+" : "-", items.key(slot), items.count(slot));
+			}
+		});
+		pairs.forEach(slot -> {
+			boolean frequent = pairs.count(slot) >= threshold;
+			if(frequent != pairs.reported(slot)){
+				pairs.set_reported(slot, frequent);
+				long pair = pairs.key(slot);
+				System.out.printf("%s%8s\t%d\n", frequent ? "+" : "-", "{"+PairCounter.first(pair)+","+PairCounter.second(pair)+"}", pairs.count(slot));
+			}
+		});
+		int bucket = bucket();
+		items.prune(bucket);
+		pairs.prune(bucket);
+	}
+
+	// frequent items and pairs at the end of the feed
+	public void print(){
+		double threshold = threshold();
+		Integer[] found = frequent(items, threshold);
+		System.out.printf("\nITEMS\tFREQUENCY\n");
+		for(int slot : found)
+			System.out.printf("{%d}\t%d\n", items.key(slot), items.count(slot));
+		System.out.println("NUMBER OF FREQUENT ITEMS: "+ found.length);
+
+		found = frequent(pairs, threshold);
+		System.out.printf("\nPAIRS\t\tFREQUENCY\n");
+		for(int slot : found){
+			long pair = pairs.key(slot);
+			System.out.printf("%8s\t%d\n", "{"+PairCounter.first(pair)+","+PairCounter.second(pair)+"}", pairs.count(slot));
+		}
+		System.out.println("Number of frequent pairs: " + found.length);
+	}
+
+	// slots of the entries at or above threshold, in key order
+	private static Integer[] frequent(LossyCounter counter, double threshold){
+		Integer[] found = new Integer[counter.size()];
+		int[] n = new int[1];
+		counter.forEach(slot -> {
+			if(counter.count(slot) >= threshold)
+				found[n[0]++] = slot;
+		});
+		Integer[] sorted = Arrays.copyOf(found, n[0]);
+		Arrays.sort(sorted, (a, b) -> Long.compare(counter.key(a), counter.key(b)));
+		return sorted;
+	}
+
+	// reads baskets line by line, waiting for more at the end of the stream when following
+	public static void read_baskets(InputStream in, boolean follow, BasketReader.BasketConsumer consumer) throws IOException{
+		byte[] buf = new byte[1 << 16];
+		int[] basket = new int[64];
+		int length = 0;
+		long num = 0;
+		long lines = 0;
+		boolean inNumber = false;
+
+		while(true){
+			int read = in.read(buf);
+			if(read < 0){
+				if(!follow)
+					break;
+				try {
+					Thread.sleep(POLL_MILLIS);
+				}
+				catch(InterruptedException e){
+					Thread.currentThread().interrupt();
+					break;
+				}
+				continue;
+			}
+			for(int k = 0; k < read; k++){
+				byte c = buf[k];
+				if(c >= '0' && c <= '9'){
+					num = num * 10 + (c - '0');
+					inNumber = true;
+					// same range as the item counts of the miners (see BasketReader and PassCounters)
+					if(num > Integer.MAX_VALUE)
+						throw new NumberFormatException("Item id out of int range in basket " + (lines + 1));
+					continue;
+				}
+				if(c == '-')
+					throw new NumberFormatException("Negative item id in basket " + (lines + 1));
+				if(c != ' ' && c != '\t' && c != '\r' && c != '\n')
+					throw new NumberFormatException("Unexpected character '" + (char)c + "' in basket");
+				if(inNumber){
+					if(length == basket.length)
+						basket = Arrays.copyOf(basket, length * 2);
+					basket[length++] = (int)num;
+				}
+				num = 0;
+				inNumber = false;
+				if(c == '\n'){
+					consumer.accept(basket, length);
+					length = 0;
+					lines++;
+				}
+			}
+		}
+		// last line without a line break
+		if(inNumber){
+			if(length == basket.length)
+				basket = Arrays.copyOf(basket, length * 2);
+			basket[length++] = (int)num;
+		}
+		if(length > 0)
+			consumer.accept(basket, length);
+	}
+}
@@ -0,0 +1,174 @@
+/*
+ * Toivonen's Algorithm -- Finding Frequent Pairs From a Random Sample
+ *
+ * SAMPLE PASS: A uniform random sample of the baskets is drawn in one read of the file with reservoir
+ * 				sampling (seeded, so a run can be repeated). The sample is mined in memory like the
+ * 				two passes of A-Priori, at a threshold lowered to LOWERED_SUPPORT of the support
+ * 				scaled to the sample, so that fewer truly frequent itemsets are missed.
+ * 				The negative border is every item that is not frequent in the sample, and every pair
+ * 				of sample-frequent items that is not itself frequent in the sample.
+ * FULL PASS:   The items and every pair of sample-frequent items (the sample-frequent pairs and the
+ * 				negative border together) are counted over the whole file. If nothing in the negative
+ * 				border turns out frequent, the frequent pairs found are exactly the frequent pairs of
+ * 				the file. Otherwise the sample missed something and the run has to be repeated with
+ * 				another seed or a larger sample, which is reported at the end of the output.
+ *
+ * With the mode "sample" only the sample pass is run and the sample counts, scaled up to the size of
+ * the data set, are printed as estimates.
+ */
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+public class Toivonen {
+
+	// fraction of the scaled support used on the sample
+	public static final double LOWERED_SUPPORT = 0.8;
+
+	public static void main(String[] args) throws Exception {
+
+		if(args.length < 3 || args.length > 6){
+			System.out.println("Usage of Toivonen:\t<file> <support threshold %> <dataset size %> [sample size %, default 10] [seed] [verify|sample]\nex.\t\t$ retail.txt 1 100 10 42");
+			return;
+		}
+
+		String fileName = args[0];
+		int threshold_percent = Integer.parseInt(args[1]);
+		int dataSetPercentage = Integer.parseInt(args[2]);
+		double samplePercentage = (args.length >= 4) ? Double.parseDouble(args[3]) : 10;
+		long seed = (args.length >= 5) ? Long.parseLong(args[4]) : System.nanoTime();
+		boolean verify = (args.length < 6) || !args[5].equals("sample");
+		int numBaskets = BasketReader.count_baskets(fileName);
+
+		double basketsToUse = numBaskets * ((double)dataSetPercentage / 100);
+		double support = basketsToUse * ((double)threshold_percent / 100);
+
+		final long startTime1 = System.currentTimeMillis();
+
+		// SAMPLE PASS
+		int sampleSize = (int)Math.max(1, Math.min(Integer.MAX_VALUE - 8, Math.ceil(basketsToUse * samplePercentage / 100)));
+		int[] passBaskets = new int[1];
+		BasketBuffer sample = reservoir_sample(fileName, sampleSize, seed, basketsToUse, passBaskets);
+		double sampleSupport = sample.size() * ((double)threshold_percent / 100) * LOWERED_SUPPORT;
+
+		PassCounters sampleItems = count_items(sample);
+		FrequentItems sample_items = FrequentItems.from_counts(sampleItems, sampleSupport);
+		PairCounter sample_pairs = count_pairs(sample, sample_items);
+		sample_pairs.removeBelow(sampleSupport);
+		final long sampleTime = System.currentTimeMillis();
+
+		if(!verify){
+			// estimates for the whole data set from the sample counts
+			double scale = (double)passBaskets[0] / Math.max(1, sample.size());
+			FrequentItems estimated_items = sample_items.scaled(scale, support);
+			PairCounter estimated_pairs = sample_items.new_pair_counter();
+			sample_pairs.forEach((i, j, count) -> {
+				if(count * scale >= support)
+					estimated_pairs.add(i, j, (int)Math.round(count * scale));
+			});
+			ResultSink sink = ResultSink.out();
+			sink.header("ITEMS\tFREQUENCY");
+			sink.items(estimated_items);
+			sink.header("NUMBER OF FREQUENT ITEMS: "+ estimated_items.size());
+
+			sink.header("\nPAIRS\t\tFREQUENCY");
+			sink.pairs(estimated_pairs, sample_items);
+			sink.header("Number of frequent pairs: " + estimated_pairs.size());
+			long outputTime = ResultSink.finish();
+			estimated_pairs.release();
+
+			System.out.println("\nSupport: " + (int)support);
+			System.out.println("Sample size: " + sample.size() + " (estimated counts, not verified)");
+			System.out.println("Total execution time: " + (System.currentTimeMillis() - startTime1 - outputTime));
+			System.out.println("Output time: " + outputTime);
+			System.out.println("Baskets in dataset: "+ (int)basketsToUse);
+			return;
+		}
+
+		// FULL PASS
+		PassCounters counters = PassRunner.run(fileName, basketsToUse, () -> new PassCounters(true, new int[0], sample_items.new_pair_counter()), (local, basket, basket_length) -> {
+			int distinct = local.count_items(basket, basket_length); // adding 1 to items count
+			count_pairs(local, sample_items, basket, distinct);
+		});
+
+		// list of frequent items, and the items of the negative border that turned out frequent
+		FrequentItems freq_items = FrequentItems.from_counts(counters, support);
+		int missed = 0;
+		for(int idx = 0; idx < freq_items.size(); idx++)
+			if(!sample_items.contains(freq_items.item(idx)))
+				missed++;
+		ResultSink sink = ResultSink.out();
+		sink.header("ITEMS\tFREQUENCY");
+		sink.items(freq_items);
+		sink.header("NUMBER OF FREQUENT ITEMS: "+ freq_items.size());
+
+		PairCounter pairs_returned = counters.pairs;
+		pairs_returned.removeBelow(support);
+
+		int[] missedPairs = new int[1];
+		pairs_returned.forEach((i, j, count) -> {
+			if(sample_pairs.get(i, j) == 0)
+				missedPairs[0]++;
+		});
+		sink.header("\nPAIRS\t\tFREQUENCY");
+		sink.pairs(pairs_returned, sample_items);
+		sink.header("Number of frequent pairs: " + pairs_returned.size());
+		long outputTime = ResultSink.finish();
+
+		final long endTime = System.currentTimeMillis();
+		System.out.println("\nSupport: " + (int)support);
+		System.out.println("Sample size: " + sample.size() + ", sample pass time: " + (sampleTime - startTime1));
+		if(missed + missedPairs[0] > 0)
+			System.out.println("SAMPLE FAILED: " + missed + " items and " + missedPairs[0] + " pairs of the negative border are frequent, rerun with another seed or a larger sample");
+		else
+			System.out.println("Negative border clear: results are exact");
+		System.out.println("Total execution time: " + (endTime - startTime1 - outputTime));
+		System.out.println("Output time: " + outputTime);
+		System.out.println("Baskets in dataset: "+ (int)basketsToUse);
+	}
+
+	// SAMPLE PASS, keeps a uniform sample of sampleSize baskets (Algorithm R), numBaskets[0] = baskets counted
+	public static BasketBuffer reservoir_sample(String fileName, int sampleSize, long seed, double dataSetSize, int[] numBaskets) throws IOException{
+		Random random = new Random(seed);
+		int[][] reservoir = new int[sampleSize][];
+		long[] seen = new long[1];
+
+		numBaskets[0] = BasketReader.read(fileName, dataSetSize, (basket, basket_length) -> {
+			long n = seen[0]++;
+			if(n < sampleSize){
+				reservoir[(int)n] = Arrays.copyOf(basket, basket_length);
+			}
+			else {
+				long slot = (long)(random.nextDouble() * (n + 1));
+				if(slot < sampleSize)
+					reservoir[(int)slot] = Arrays.copyOf(basket, basket_length);
+			}
+		});
+
+		BasketBuffer sample = new BasketBuffer();
+		for(int b = 0; b < Math.min(seen[0], sampleSize); b++)
+			sample.add(reservoir[b], reservoir[b].length);
+		return sample;
+	}
+
+	private static PassCounters count_items(BasketBuffer sample){
+		PassCounters counters = PassCounters.items_and_buckets().get();
+		sample.forEach(counters::count_items);
+		return counters;
+	}
+
+	private static PairCounter count_pairs(BasketBuffer sample, FrequentItems sample_items){
+		PassCounters counters = PassCounters.pairs(sample_items::new_pair_counter).get();
+		sample.forEach((basket, basket_length) -> count_pairs(counters, sample_items, basket, basket_length));
+		return counters.pairs;
+	}
+
+	// every pair of sample-frequent items of the basket, counted on compact indices
+	private static void count_pairs(PassCounters local, FrequentItems sample_items, int[] basket, int basket_length){
+		int freq_length = sample_items.filter(basket, basket_length, basket);
+		for(int i = 0; i < freq_length; i++)
+			for(int j = (i + 1); j < freq_length; j++)
+				local.pairs.increment(basket[i], basket[j]);
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ * Top Pairs -- Approximate Most Frequent Pairs in One Pass
+ *
+ * ONLY PASS:   Every pair of every basket goes into a Count-Min sketch with a heavy hitter heap
+ * 				(Pcy.find_top_pairs). Memory is fixed by the sketch size and k, no matter how many
+ * 				distinct pairs the file has, and there is no support threshold to pick.
+ *
+ * The K pairs with the largest estimates are written through ResultSink, largest first, with their
+ * estimate as the count. Estimates never fall below the true count and are at most the printed error
+ * bound above it.
+ */
+
+public class TopPairs {
+
+	public static void main(String[] args) throws Exception {
+
+		if(args.length < 3 || args.length > 5){
+			System.out.println("Usage of TopPairs:\t<file> <number of pairs> <dataset size %> [sketch width, default 262144] [sketch depth, default 4]\nex.\t\t$ retail.txt 100 100");
+			return;
+		}
+
+		String fileName = args[0];
+		int k = Integer.parseInt(args[1]);
+		int dataSetPercentage = Integer.parseInt(args[2]);
+		int width = (args.length >= 4) ? Integer.parseInt(args[3]) : 1 << 18;
+		int depth = (args.length == 5) ? Integer.parseInt(args[4]) : 4;
+		int numBaskets = BasketReader.count_baskets(fileName);
+
+		double basketsToUse = numBaskets * ((double)dataSetPercentage / 100);
+
+		final long startTime1 = System.currentTimeMillis();
+
+		// ONLY PASS
+		CountMinSketch sketch = Pcy.find_top_pairs(fileName, k, width, depth, basketsToUse);
+		long bound = sketch.error_bound();
+
+		long[] top = sketch.top(k);
+		int[] estimates = new int[top.length];
+		for(int p = 0; p < top.length; p++)
+			estimates[p] = sketch.estimate(PairCounter.first(top[p]), PairCounter.second(top[p]));
+
+		ResultSink sink = ResultSink.out();
+		sink.header("PAIRS\t\tESTIMATE");
+		sink.pairs(top, estimates);
+		sink.header("Number of pairs: " + top.length);
+		long outputTime = ResultSink.finish();
+
+		final long endTime = System.currentTimeMillis();
+		System.out.printf("\nError bound: +%d with probability %.4f (%d pair occurrences), the true count of a pair is at least its estimate - %d\n", bound, 1 - sketch.failure_probability(), sketch.total(), bound);
+		System.out.println("Sketch memory: " + sketch.bytes() + " bytes");
+		System.out.println("Total execution time: " + (endTime - startTime1 - outputTime));
+		System.out.println("Output time: " + outputTime);
+		System.out.println("Baskets in dataset: "+ (int)basketsToUse);
+	}
+}